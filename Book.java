@@ -1,17 +1,41 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class Book implements Serializable {
     private static final long serialVersionUID = 1L;
+    // keep the original serialized form (available flag, waitingQueue) readable and writable
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("isbn", String.class),
+        new ObjectStreamField("title", String.class),
+        new ObjectStreamField("author", String.class),
+        new ObjectStreamField("category", String.class),
+        new ObjectStreamField("shelf", String.class),
+        new ObjectStreamField("available", boolean.class),
+        new ObjectStreamField("waitingQueue", Queue.class),
+    };
 
     public String isbn;
     public String title;
     public String author;
     public String category;
     public String shelf; // e.g., "Shelf-4"
-    private boolean available;
-    public Queue<String> waitingQueue; // store userNames waiting
+
+    // Once in a Library, availability is a bit in its CatalogStore under this dense id;
+    // the flag only holds it while the book is detached (new, or being loaded)
+    transient int id = -1;
+    private transient CatalogStore store;
+    private volatile boolean available;
+    // userNames waiting; created on the first wait and dropped when it drains,
+    // since almost every book never has anyone waiting (written under the Library's per-ISBN lock)
+    private volatile Queue<String> waiters;
 
     public Book(String isbn, String title, String author, String category, String shelf) {
         this.isbn = isbn;
@@ -20,19 +44,93 @@ public class Book implements Serializable {
         this.category = category;
         this.shelf = shelf;
         this.available = true;
-        this.waitingQueue = new LinkedList<>();
     }
 
     public boolean isAvailable() {
-        return available;
+        CatalogStore s = store;
+        return s != null ? s.isAvailable(id) : available;
     }
 
     public void setAvailable(boolean val) {
-        this.available = val;
+        CatalogStore s = store;
+        if (s != null) s.setAvailable(id, val);
+        else available = val;
+    }
+
+    void attach(CatalogStore store, int id) {
+        this.id = id;
+        this.store = store;
+    }
+
+    /** Leave the store, keeping the last availability in the flag */
+    void detach() {
+        if (store == null) return;
+        available = store.isAvailable(id);
+        store = null;
+        id = -1;
+    }
+
+    // ====== Waiting list ======
+    public int waitingCount() {
+        Queue<String> q = waiters;
+        return q == null ? 0 : q.size();
+    }
+
+    public boolean isWaiting(String userName) {
+        Queue<String> q = waiters;
+        return q != null && q.contains(userName);
+    }
+
+    public void addWaiter(String userName) {
+        Queue<String> q = waiters;
+        if (q == null) waiters = q = new ConcurrentLinkedQueue<>();
+        q.add(userName);
+    }
+
+    /** Remove and return the first waiting user, or null if nobody waits */
+    public String pollWaiter() {
+        Queue<String> q = waiters;
+        if (q == null) return null;
+        String next = q.poll();
+        if (q.isEmpty()) waiters = null;
+        return next;
+    }
+
+    /** Waiting users in order (a copy) */
+    public List<String> waitingList() {
+        Queue<String> q = waiters;
+        return q == null ? Collections.emptyList() : new ArrayList<>(q);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField f = out.putFields();
+        f.put("isbn", isbn);
+        f.put("title", title);
+        f.put("author", author);
+        f.put("category", category);
+        f.put("shelf", shelf);
+        f.put("available", isAvailable());
+        f.put("waitingQueue", new ConcurrentLinkedQueue<>(waitingList()));
+        out.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField f = in.readFields();
+        isbn = (String) f.get("isbn", null);
+        title = (String) f.get("title", null);
+        author = (String) f.get("author", null);
+        category = (String) f.get("category", null);
+        shelf = (String) f.get("shelf", null);
+        available = f.get("available", true);
+        id = -1;
+        // older saves used a LinkedList
+        Queue<String> q = (Queue<String>) f.get("waitingQueue", null);
+        if (q != null && !q.isEmpty()) waiters = new ConcurrentLinkedQueue<>(q);
     }
 
     @Override
     public String toString() {
-        return String.format("%s | %s | %s | %s | %s", isbn, title, author, category, (available ? "Available" : "Issued"));
+        return String.format("%s | %s | %s | %s | %s", isbn, title, author, category, (isAvailable() ? "Available" : "Issued"));
     }
 }
@@ -0,0 +1,293 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Bulk catalog import from CSV or JSON Lines dumps.
+ *
+ * The file is split into ~CHUNK_BYTES ranges cut at line boundaries; each range
+ * is memory-mapped and parsed on its own fork-join task. Records are validated
+ * (isbn and title required), deduplicated by ISBN keeping the first occurrence
+ * in file order, and handed to Library.addBooks, which skips ISBNs already in
+ * the catalog and rebuilds the secondary indexes once for the whole batch.
+ *
+ * CSV: optional header naming the columns (isbn,title,author,category,shelf in
+ * any order), otherwise that order is assumed. Fields may be quoted with ""
+ * escapes but a record must not span lines, so chunks can split anywhere.
+ * JSONL: one object per line with the same field names.
+ * Usage as tool: java BulkImporter catalog.csv   (imports into the saved library)
+ */
+public final class BulkImporter {
+    public enum Format { CSV, JSONL }
+
+    private static final long CHUNK_BYTES = 8L << 20;
+    private static final int MAX_ERRORS_REPORTED = 10;
+    private static final String[] COLUMNS = {"isbn", "title", "author", "category", "shelf"};
+
+    private BulkImporter() {}
+
+    /** Outcome counts of one import plus the first few validation errors */
+    public static final class Result {
+        public long records, imported, duplicates, existing, invalid;
+        public long millis;
+        public final List<String> errors = new ArrayList<>();
+
+        public long recordsPerSecond() {
+            return millis == 0 ? records * 1000 : records * 1000 / millis;
+        }
+    }
+
+    /** Per-chunk parse output, merged in file order */
+    private static final class Chunk {
+        final List<Book> books = new ArrayList<>();
+        long records, invalid;
+        final List<String> errors = new ArrayList<>();
+
+        void reject(long offset, String reason) {
+            invalid++;
+            if (errors.size() < MAX_ERRORS_REPORTED) errors.add("byte " + offset + ": " + reason);
+        }
+    }
+
+    public static Format detect(Path file) throws IOException {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".csv")) return Format.CSV;
+        if (name.endsWith(".jsonl") || name.endsWith(".ndjson") || name.endsWith(".json")) return Format.JSONL;
+        try (InputStream in = Files.newInputStream(file)) {
+            int c;
+            while ((c = in.read()) == ' ' || c == '\t' || c == '\r' || c == '\n') { }
+            return c == '{' ? Format.JSONL : Format.CSV;
+        }
+    }
+
+    public static Result importFile(Library lib, Path file, Format format) throws IOException {
+        return importFile(lib::addBooks, file, format);
+    }
+
+    /** Import into a sharded library: one batch per shard */
+    public static Result importFile(ShardedLibrary lib, Path file, Format format) throws IOException {
+        return importFile(lib::addBooks, file, format);
+    }
+
+    /** Where an import's unique books go in one batch; returns how many were new */
+    private interface Target {
+        int addBooks(Collection<Book> books) throws IOException;
+    }
+
+    private static Result importFile(Target lib, Path file, Format format) throws IOException {
+        long t0 = System.nanoTime();
+        Result result = new Result();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            long[] bounds = chunkBounds(ch, size);
+            int[] columns = format == Format.CSV ? csvColumns(ch, size) : null;
+            Chunk[] chunks = new Chunk[bounds.length - 1];
+            IntStream.range(0, chunks.length).parallel().forEach(i -> {
+                try {
+                    chunks[i] = parseChunk(ch, bounds[i], bounds[i + 1], format, columns, i == 0 && columns != null && columns[5] == 1);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+
+            Map<String, Book> unique = new LinkedHashMap<>();
+            for (Chunk c : chunks) {
+                result.records += c.records;
+                result.invalid += c.invalid;
+                for (String err : c.errors) {
+                    if (result.errors.size() < MAX_ERRORS_REPORTED) result.errors.add(err);
+                }
+                for (Book b : c.books) {
+                    if (unique.putIfAbsent(b.isbn, b) != null) result.duplicates++;
+                }
+            }
+            result.imported = lib.addBooks(unique.values());
+            result.existing = unique.size() - result.imported;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        result.millis = (System.nanoTime() - t0) / 1_000_000;
+        return result;
+    }
+
+    /** Chunk start offsets, each just after a newline, with size as the last entry */
+    private static long[] chunkBounds(FileChannel ch, long size) throws IOException {
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        ByteBuffer one = ByteBuffer.allocate(4096);
+        long pos = CHUNK_BYTES;
+        while (pos < size) {
+            // advance to the byte after the next newline
+            long cut = -1;
+            while (cut < 0 && pos < size) {
+                one.clear();
+                int n = ch.read(one, pos);
+                if (n <= 0) break;
+                for (int i = 0; i < n; i++) {
+                    if (one.get(i) == '\n') {
+                        cut = pos + i + 1;
+                        break;
+                    }
+                }
+                if (cut < 0) pos += n;
+            }
+            if (cut < 0 || cut >= size) break;
+            bounds.add(cut);
+            pos = cut + CHUNK_BYTES;
+        }
+        bounds.add(size);
+        long[] out = new long[bounds.size()];
+        for (int i = 0; i < out.length; i++) out[i] = bounds.get(i);
+        return out;
+    }
+
+    /**
+     * Column index of each of COLUMNS in the CSV (-1 if missing), with a sixth
+     * entry that is 1 when the first line is a header to skip.
+     */
+    private static int[] csvColumns(FileChannel ch, long size) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate((int) Math.min(size, 64 * 1024));
+        ch.read(head, 0);
+        String text = new String(head.array(), 0, head.position(), StandardCharsets.UTF_8);
+        int nl = text.indexOf('\n');
+        String first = (nl < 0 ? text : text.substring(0, nl)).replace("\r", "");
+        if (first.startsWith("\uFEFF")) first = first.substring(1);
+        List<String> names = splitCsv(first);
+        int[] columns = {0, 1, 2, 3, 4, 0};
+        boolean header = false;
+        for (String n : names) {
+            if (Arrays.asList(COLUMNS).contains(n.trim().toLowerCase(Locale.ROOT))) header = true;
+        }
+        if (header) {
+            for (int c = 0; c < COLUMNS.length; c++) {
+                columns[c] = -1;
+                for (int i = 0; i < names.size(); i++) {
+                    if (names.get(i).trim().equalsIgnoreCase(COLUMNS[c])) columns[c] = i;
+                }
+            }
+            columns[5] = 1;
+        }
+        return columns;
+    }
+
+    private static Chunk parseChunk(FileChannel ch, long from, long to, Format format, int[] columns, boolean skipHeader) throws IOException {
+        Chunk out = new Chunk();
+        MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        int len = buf.limit();
+        byte[] line = new byte[256];
+        int start = 0;
+        boolean first = true;
+        while (start < len) {
+            int end = start;
+            while (end < len && buf.get(end) != '\n') end++;
+            int n = end - start;
+            if (n > 0 && buf.get(end - 1) == '\r') n--;
+            if (n > line.length) line = new byte[Math.max(n, line.length * 2)];
+            buf.get(start, line, 0, n);
+            String text = new String(line, 0, n, StandardCharsets.UTF_8);
+            long offset = from + start;
+            start = end + 1;
+            if (first && from == 0 && text.startsWith("\uFEFF")) text = text.substring(1);
+            boolean header = first && skipHeader;
+            first = false;
+            if (header || text.trim().isEmpty()) continue;
+            out.records++;
+            String[] fields = new String[COLUMNS.length];
+            if (format == Format.CSV) {
+                List<String> values = splitCsv(text);
+                for (int c = 0; c < COLUMNS.length; c++) {
+                    int idx = columns[c];
+                    fields[c] = idx >= 0 && idx < values.size() ? values.get(idx).trim() : null;
+                }
+            } else {
+                try {
+                    Map<String, Object> obj = JsonReader.parseObject(text);
+                    for (int c = 0; c < COLUMNS.length; c++) {
+                        String v = JsonReader.string(obj, COLUMNS[c]);
+                        fields[c] = v == null ? null : v.trim();
+                    }
+                } catch (IllegalArgumentException e) {
+                    out.reject(offset, e.getMessage());
+                    continue;
+                }
+            }
+            String problem = validate(fields);
+            if (problem != null) {
+                out.reject(offset, problem);
+                continue;
+            }
+            out.books.add(new Book(fields[0], fields[1], orEmpty(fields[2]), orEmpty(fields[3]), orEmpty(fields[4])));
+        }
+        return out;
+    }
+
+    /** Why a record cannot be imported, or null if it is valid */
+    static String validate(String[] fields) {
+        String isbn = fields[0];
+        if (isbn == null || isbn.isEmpty()) return "missing isbn";
+        if (isbn.length() > 64) return "isbn longer than 64 characters";
+        for (int i = 0; i < isbn.length(); i++) {
+            if (Character.isWhitespace(isbn.charAt(i)) || Character.isISOControl(isbn.charAt(i))) return "isbn contains whitespace";
+        }
+        if (fields[1] == null || fields[1].isEmpty()) return "missing title";
+        return null;
+    }
+
+    private static String orEmpty(String s) {
+        return s == null ? "" : s;
+    }
+
+    /** Split one CSV record on commas, honouring double quotes with "" as an escaped quote */
+    static List<String> splitCsv(String line) {
+        List<String> out = new ArrayList<>();
+        StringBuilder cur = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        cur.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    cur.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                out.add(cur.toString());
+                cur.setLength(0);
+            } else {
+                cur.append(c);
+            }
+        }
+        out.add(cur.toString());
+        return out;
+    }
+
+    /** Imports into the library in library.data.dir, laid out in library.shards shards like the web server's */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: java [-Dlibrary.shards=N] BulkImporter <catalog.csv | catalog.jsonl>");
+            System.exit(2);
+        }
+        Path file = Paths.get(args[0]);
+        int shards = Integer.getInteger("library.shards", 1);
+        ShardedLibrary lib = ShardedLibrary.loadState(shards);
+        if (lib == null) lib = ShardedLibrary.create(shards);
+        lib.openJournal();
+        Result r = importFile(lib, file, detect(file));
+        lib.closeJournal();
+        System.out.printf("Imported %d of %d records (%d duplicates, %d already in catalog, %d invalid) in %d ms, %d records/s%n",
+                r.imported, r.records, r.duplicates, r.existing, r.invalid, r.millis, r.recordsPerSecond());
+        for (String e : r.errors) System.out.println("  " + e);
+    }
+}
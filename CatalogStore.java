@@ -0,0 +1,131 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * Compact per-book bookkeeping for a Library's catalog.
+ *
+ * Every attached Book gets a dense int id; the store keeps the id -> Book table
+ * and one availability bit per id, both in fixed-size pages so growing to
+ * millions of books never copies what is already there. Counting available
+ * books is a population count over the bit pages and listing them visits only
+ * set bits. Author, category and shelf strings are replaced on attach by one
+ * canonical instance per distinct value, so a catalog with millions of books
+ * but a few hundred shelves and categories holds each of those strings once.
+ *
+ * Ids are assigned under the store's monitor; bits are flipped with a CAS on
+ * their word, so books sharing a word can change on different lock stripes.
+ */
+final class CatalogStore {
+    private static final int PAGE_BITS = 16;
+    private static final int PAGE = 1 << PAGE_BITS; // books per page
+    private static final int PAGE_MASK = PAGE - 1;
+
+    private volatile Book[][] books = new Book[0][];
+    private volatile AtomicLongArray[] bits = new AtomicLongArray[0];
+    private volatile int size;
+    private final ConcurrentHashMap<String, String> dictionary = new ConcurrentHashMap<>();
+
+    /** Attach a book: canonicalize its repeated strings and give it the next id */
+    synchronized void add(Book b) {
+        canonicalize(b);
+        int id = size;
+        if ((id >>> PAGE_BITS) == books.length) grow();
+        put(id, b);
+        size = id + 1;
+    }
+
+    /** A book replacing another with the same ISBN takes over its id */
+    synchronized void replace(Book old, Book b) {
+        canonicalize(b);
+        int id = old.id;
+        old.detach();
+        put(id, b);
+    }
+
+    private void put(int id, Book b) {
+        boolean available = b.isAvailable();
+        b.detach();
+        books[id >>> PAGE_BITS][id & PAGE_MASK] = b;
+        setAvailable(id, available);
+        b.attach(this, id);
+    }
+
+    private void grow() {
+        int pages = books.length + 1;
+        Book[][] nb = Arrays.copyOf(books, pages);
+        nb[pages - 1] = new Book[PAGE];
+        AtomicLongArray[] nbits = Arrays.copyOf(bits, pages);
+        nbits[pages - 1] = new AtomicLongArray(PAGE / 64);
+        bits = nbits;
+        books = nb;
+    }
+
+    private void canonicalize(Book b) {
+        b.author = canonical(b.author);
+        b.category = canonical(b.category);
+        b.shelf = canonical(b.shelf);
+    }
+
+    String canonical(String s) {
+        if (s == null) return null;
+        String c = dictionary.putIfAbsent(s, s);
+        return c == null ? s : c;
+    }
+
+    /** Distinct author/category/shelf values held */
+    int dictionarySize() {
+        return dictionary.size();
+    }
+
+    void setAvailable(int id, boolean available) {
+        AtomicLongArray words = bits[id >>> PAGE_BITS];
+        int w = (id & PAGE_MASK) >>> 6;
+        long mask = 1L << id;
+        long cur;
+        do {
+            cur = words.get(w);
+            if (((cur & mask) != 0) == available) return;
+        } while (!words.compareAndSet(w, cur, cur ^ mask));
+    }
+
+    boolean isAvailable(int id) {
+        return (bits[id >>> PAGE_BITS].get((id & PAGE_MASK) >>> 6) & (1L << id)) != 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    Book get(int id) {
+        return id < size ? books[id >>> PAGE_BITS][id & PAGE_MASK] : null;
+    }
+
+    /** Number of available books: a popcount over the bit pages */
+    long availableCount() {
+        AtomicLongArray[] pages = bits;
+        long n = 0;
+        for (AtomicLongArray words : pages) {
+            for (int i = 0, len = words.length(); i < len; i++) n += Long.bitCount(words.get(i));
+        }
+        return n;
+    }
+
+    /** Visit every available book in id order, skipping unset bits a word at a time */
+    void forEachAvailable(Consumer<Book> action) {
+        Book[][] table = books;
+        AtomicLongArray[] pages = bits;
+        for (int p = 0, n = Math.min(table.length, pages.length); p < n; p++) {
+            AtomicLongArray words = pages[p];
+            for (int i = 0, len = words.length(); i < len; i++) {
+                long word = words.get(i);
+                while (word != 0) {
+                    Book b = table[p][(i << 6) + Long.numberOfTrailingZeros(word)];
+                    if (b != null) action.accept(b);
+                    word &= word - 1;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,275 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Links the CategoryNode tree to the books filed under it.
+ *
+ * A book's category string is a path of node names separated by '/' or '>'
+ * ("Non-Fiction > Science", "Non-Fiction/Science"; a plain "CS" is a child of
+ * the root). Missing nodes are created in the tree on first use. Nodes are
+ * numbered in pre-order with an exit number (last descendant), so a subtree is
+ * the contiguous range [enter, exit] of the pre-order: listing a subtree walks
+ * that range instead of the catalog.
+ *
+ * Each node keeps a sorted posting list of the CatalogStore ids filed directly
+ * under it plus counts of total and available books for itself and for its
+ * whole subtree. A change updates the counts of the node and its ancestors
+ * (a handful of LongAdders for a realistic depth), so every subtree count is
+ * read in O(1). Pagination skips whole nodes by their counts and only scans the
+ * postings of the node where the page starts.
+ */
+public class CategoryIndex {
+    private final CatalogStore store;
+    private final Map<String, Slot> byPath = new ConcurrentHashMap<>();
+    // raw Book.category -> slot, so borrows and returns never re-parse the path
+    private final Map<String, Slot> byCategory = new ConcurrentHashMap<>();
+    private final List<Slot> slots = new ArrayList<>(); // by Slot.seq, guarded by this
+    private volatile Layout layout;
+
+    private static final class Slot {
+        final int seq;
+        final CategoryNode node;
+        final String path;
+        final Slot parent;
+        int[] postings = new int[4]; // sorted ids, guarded by this slot
+        int size;
+        final LongAdder ownTotal = new LongAdder(), ownAvailable = new LongAdder();
+        final LongAdder subTotal = new LongAdder(), subAvailable = new LongAdder();
+
+        Slot(int seq, CategoryNode node, String path, Slot parent) {
+            this.seq = seq;
+            this.node = node;
+            this.path = path;
+            this.parent = parent;
+        }
+
+        synchronized void insert(int id) {
+            int at = Arrays.binarySearch(postings, 0, size, id);
+            if (at >= 0) return;
+            at = -at - 1;
+            if (size == postings.length) postings = Arrays.copyOf(postings, size * 2);
+            System.arraycopy(postings, at, postings, at + 1, size - at);
+            postings[at] = id;
+            size++;
+        }
+
+        synchronized void delete(int id) {
+            int at = Arrays.binarySearch(postings, 0, size, id);
+            if (at < 0) return;
+            System.arraycopy(postings, at + 1, postings, at, size - at - 1);
+            size--;
+        }
+    }
+
+    /** Pre-order numbering, replaced as a whole when a node is added */
+    private static final class Layout {
+        final Slot[] order;
+        final int[] enter, exit; // by Slot.seq
+
+        Layout(Slot[] order, int[] enter, int[] exit) {
+            this.order = order;
+            this.enter = enter;
+            this.exit = exit;
+        }
+    }
+
+    /** Counts for one category and its direct children */
+    public static final class Category {
+        public final String path, name;
+        public final long total, available; // whole subtree
+        public final List<Category> children;
+
+        Category(String path, String name, long total, long available, List<Category> children) {
+            this.path = path;
+            this.name = name;
+            this.total = total;
+            this.available = available;
+            this.children = children;
+        }
+    }
+
+    private CategoryIndex(CatalogStore store) {
+        this.store = store;
+    }
+
+    /** Index the given tree and every book in the store, adding nodes for unseen categories */
+    static CategoryIndex build(CategoryNode root, CatalogStore store) {
+        CategoryIndex idx = new CategoryIndex(store);
+        synchronized (idx) {
+            idx.register(root, "", null);
+            idx.renumber();
+        }
+        for (int id = 0, n = store.size(); id < n; id++) {
+            Book b = store.get(id);
+            if (b != null) idx.bookAdded(b);
+        }
+        return idx;
+    }
+
+    private void register(CategoryNode node, String path, Slot parent) {
+        if (byPath.containsKey(path)) return; // a duplicate sibling name: the first one wins
+        Slot s = new Slot(slots.size(), node, path, parent);
+        slots.add(s);
+        byPath.put(path, s);
+        for (CategoryNode c : node.children) register(c, path.isEmpty() ? c.name : path + "/" + c.name, s);
+    }
+
+    private void renumber() {
+        Slot[] order = new Slot[slots.size()];
+        int[] enter = new int[order.length], exit = new int[order.length];
+        number(slots.get(0), order, enter, exit, 0);
+        layout = new Layout(order, enter, exit);
+    }
+
+    private int number(Slot s, Slot[] order, int[] enter, int[] exit, int next) {
+        enter[s.seq] = next;
+        order[next++] = s;
+        for (CategoryNode c : s.node.children) {
+            Slot child = byPath.get(s.path.isEmpty() ? c.name : s.path + "/" + c.name);
+            if (child != null && child.node == c) next = number(child, order, enter, exit, next);
+        }
+        exit[s.seq] = next - 1;
+        return next;
+    }
+
+    /** Canonical path: trimmed names joined by '/', empty for the root */
+    static String normalize(String category) {
+        if (category == null) return "";
+        StringBuilder path = new StringBuilder();
+        for (String part : category.split("[/>]")) {
+            String name = part.trim();
+            if (name.isEmpty()) continue;
+            if (path.length() > 0) path.append('/');
+            path.append(name);
+        }
+        return path.toString();
+    }
+
+    /** Slot for a path, creating the missing nodes along it */
+    private Slot slot(String path) {
+        Slot s = byPath.get(path);
+        if (s != null) return s;
+        synchronized (this) {
+            s = byPath.get(path);
+            if (s != null) return s;
+            Slot parent = slots.get(0);
+            String prefix = "";
+            for (String name : path.split("/")) {
+                prefix = prefix.isEmpty() ? name : prefix + "/" + name;
+                Slot next = byPath.get(prefix);
+                if (next == null) {
+                    CategoryNode node = new CategoryNode(name);
+                    parent.node.addChild(node);
+                    next = new Slot(slots.size(), node, prefix, parent);
+                    slots.add(next);
+                    byPath.put(prefix, next);
+                }
+                parent = next;
+            }
+            renumber();
+            return parent;
+        }
+    }
+
+    // ====== Updates (under the Library's per-ISBN lock of the book) ======
+    private Slot slotOf(Book b) {
+        String category = b.category == null ? "" : b.category;
+        Slot s = byCategory.get(category);
+        if (s == null) {
+            s = slot(normalize(category));
+            byCategory.put(category, s);
+        }
+        return s;
+    }
+
+    void bookAdded(Book b) {
+        Slot s = slotOf(b);
+        s.insert(b.id);
+        boolean available = b.isAvailable();
+        s.ownTotal.increment();
+        if (available) s.ownAvailable.increment();
+        for (Slot a = s; a != null; a = a.parent) {
+            a.subTotal.increment();
+            if (available) a.subAvailable.increment();
+        }
+    }
+
+    void bookRemoved(Book b) {
+        Slot s = slotOf(b);
+        s.delete(b.id);
+        boolean available = b.isAvailable();
+        s.ownTotal.decrement();
+        if (available) s.ownAvailable.decrement();
+        for (Slot a = s; a != null; a = a.parent) {
+            a.subTotal.decrement();
+            if (available) a.subAvailable.decrement();
+        }
+    }
+
+    /** The book flipped between available and issued */
+    void availabilityChanged(Book b, boolean nowAvailable) {
+        Slot s = slotOf(b);
+        int delta = nowAvailable ? 1 : -1;
+        s.ownAvailable.add(delta);
+        for (Slot a = s; a != null; a = a.parent) a.subAvailable.add(delta);
+    }
+
+    // ====== Queries ======
+    /** Counts for the category at path and its children, or null if there is no such category */
+    public Category category(String path) {
+        Slot s = byPath.get(normalize(path));
+        if (s == null) return null;
+        List<Category> children = new ArrayList<>();
+        Layout l = layout;
+        for (int i = l.enter[s.seq] + 1; i <= l.exit[s.seq]; i++) {
+            Slot c = l.order[i];
+            if (c.parent == s) {
+                children.add(new Category(c.path, c.node.name, c.subTotal.sum(), c.subAvailable.sum(), Collections.emptyList()));
+            }
+        }
+        return new Category(s.path, s == slots.get(0) ? "" : s.node.name, s.subTotal.sum(), s.subAvailable.sum(), children);
+    }
+
+    /**
+     * Books anywhere under path in pre-order of their categories (and id order
+     * within one), skipping offset of them; null if there is no such category.
+     */
+    public List<Book> books(String path, boolean availableOnly, int offset, int limit) {
+        Slot s = byPath.get(normalize(path));
+        if (s == null) return null;
+        Layout l = layout;
+        List<Book> page = new ArrayList<>(Math.min(limit, 1024));
+        long skip = offset;
+        for (int i = l.enter[s.seq]; i <= l.exit[s.seq] && page.size() < limit; i++) {
+            Slot c = l.order[i];
+            long here = availableOnly ? c.ownAvailable.sum() : c.ownTotal.sum();
+            if (skip >= here) {
+                skip -= here;
+                continue;
+            }
+            synchronized (c) {
+                // all ids count toward the offset: jump straight to it; otherwise skip available ones
+                int k = availableOnly ? 0 : (int) Math.min(skip, c.size);
+                if (!availableOnly) skip = 0;
+                for (; k < c.size && page.size() < limit; k++) {
+                    int id = c.postings[k];
+                    if (availableOnly) {
+                        if (!store.isAvailable(id)) continue;
+                        if (skip > 0) {
+                            skip--;
+                            continue;
+                        }
+                    }
+                    addBook(page, id);
+                }
+            }
+        }
+        return page;
+    }
+
+    private void addBook(List<Book> page, int id) {
+        Book b = store.get(id);
+        if (b != null) page.add(b);
+    }
+}
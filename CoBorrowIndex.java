@@ -0,0 +1,211 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Item-item co-occurrence counts built from users' borrow histories, for
+ * collaborative-filtering recommendations. Titles are interned to int ids and
+ * each row is a sparse primitive list of (neighbor, count) kept sorted by
+ * count, so the top-k neighbors of a title are simply its first k entries.
+ * A single increment moves an entry up past lower counts (insertion step),
+ * which keeps the lists sorted without re-sorting. Only the most recent
+ * HISTORY_WINDOW titles of a user pair with a new borrow, bounding the cost.
+ * Borrowers never block here: records go to a lock-free queue and are applied
+ * by whichever thread holds the lock next (a recording thread that wins a
+ * tryLock, or any reader).
+ */
+public class CoBorrowIndex {
+    // only this many of a user's most recent titles count as co-borrowed with a new one
+    static final int HISTORY_WINDOW = 50;
+
+    private final Map<String, Integer> itemIds = new HashMap<>();
+    private final List<String> items = new ArrayList<>(); // id -> title
+    private final List<Row> rows = new ArrayList<>();     // id -> neighbors
+    private final ConcurrentLinkedQueue<Pending> pending = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private static final class Pending {
+        final Collection<String> history;
+        final String title;
+
+        Pending(Collection<String> history, String title) {
+            this.history = history;
+            this.title = title;
+        }
+    }
+
+    /** Sparse row: neighbors sorted by descending count, with a position map for O(1) lookup */
+    private static final class Row {
+        int[] nbr = new int[4];
+        int[] cnt = new int[4];
+        int size;
+        final IntIntMap pos = new IntIntMap();
+
+        void increment(int neighbor) {
+            int p = pos.get(neighbor);
+            if (p < 0) {
+                if (size == nbr.length) {
+                    nbr = Arrays.copyOf(nbr, size * 2);
+                    cnt = Arrays.copyOf(cnt, size * 2);
+                }
+                p = size++;
+                nbr[p] = neighbor;
+                pos.put(neighbor, p);
+            }
+            int c = ++cnt[p];
+            // bubble up past entries with a smaller count
+            while (p > 0 && cnt[p - 1] < c) {
+                int other = nbr[p - 1];
+                nbr[p - 1] = neighbor;
+                cnt[p - 1] = c;
+                nbr[p] = other;
+                cnt[p] = c - 1;
+                pos.put(other, p);
+                p--;
+            }
+            pos.put(neighbor, p);
+        }
+    }
+
+    /** Open-addressing int -> int map (keys are non-negative ids, -1 marks empty slots) */
+    static final class IntIntMap {
+        private int[] keys = new int[8];
+        private int[] vals = new int[8];
+        private int size;
+
+        IntIntMap() {
+            Arrays.fill(keys, -1);
+        }
+
+        int get(int key) {
+            int mask = keys.length - 1;
+            for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+                if (keys[i] == key) return vals[i];
+                if (keys[i] == -1) return -1;
+            }
+        }
+
+        void put(int key, int val) {
+            if ((size + 1) * 4 > keys.length * 3) grow();
+            int mask = keys.length - 1;
+            for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    vals[i] = val;
+                    return;
+                }
+                if (keys[i] == -1) {
+                    keys[i] = key;
+                    vals[i] = val;
+                    size++;
+                    return;
+                }
+            }
+        }
+
+        private void grow() {
+            int[] oldKeys = keys, oldVals = vals;
+            keys = new int[oldKeys.length * 2];
+            vals = new int[oldKeys.length * 2];
+            Arrays.fill(keys, -1);
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) if (oldKeys[i] != -1) put(oldKeys[i], oldVals[i]);
+        }
+
+        private static int mix(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+
+    private int idOf(String title) {
+        Integer id = itemIds.get(title);
+        if (id != null) return id;
+        int fresh = items.size();
+        itemIds.put(title, fresh);
+        items.add(title);
+        rows.add(new Row());
+        return fresh;
+    }
+
+    /**
+     * Record that a user whose history so far is `history` borrowed `title`.
+     * Each distinct earlier title co-occurs once with it; re-borrows add nothing.
+     * The caller must not modify `history` afterwards.
+     */
+    public void record(Collection<String> history, String title) {
+        pending.add(new Pending(history, title));
+        if (lock.tryLock()) {
+            try {
+                drain();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void drain() {
+        Pending p;
+        while ((p = pending.poll()) != null) apply(p.history, p.title);
+    }
+
+    private void apply(Collection<String> history, String title) {
+        int t = idOf(title);
+        if (history.contains(title)) return;
+        Set<String> seen = new HashSet<>();
+        for (String prev : history) {
+            if (!seen.add(prev)) continue;
+            int p = idOf(prev);
+            rows.get(t).increment(p);
+            rows.get(p).increment(t);
+        }
+    }
+
+    /** Up to k titles most often co-borrowed with title, skipping those in exclude */
+    public List<String> topNeighbors(String title, int k, Set<String> exclude) {
+        lock.lock();
+        try {
+            drain();
+            Integer id = itemIds.get(title);
+            if (id == null || k <= 0) return Collections.emptyList();
+            Row row = rows.get(id);
+            List<String> out = new ArrayList<>(k);
+            for (int i = 0; i < row.size && out.size() < k; i++) {
+                String t = items.get(row.nbr[i]);
+                if (!exclude.contains(t)) out.add(t);
+            }
+            return out;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Every title co-borrowed with title and its count, highest count first */
+    public Map<String, Integer> neighborCounts(String title) {
+        lock.lock();
+        try {
+            drain();
+            Integer id = itemIds.get(title);
+            if (id == null) return Collections.emptyMap();
+            Row row = rows.get(id);
+            Map<String, Integer> out = new LinkedHashMap<>(row.size * 2);
+            for (int i = 0; i < row.size; i++) out.put(items.get(row.nbr[i]), row.cnt[i]);
+            return out;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int coCount(String a, String b) {
+        lock.lock();
+        try {
+            drain();
+            Integer ia = itemIds.get(a), ib = itemIds.get(b);
+            if (ia == null || ib == null) return 0;
+            Row row = rows.get(ia);
+            int p = row.pos.get(ib);
+            return p < 0 ? 0 : row.cnt[p];
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+import java.util.*;
+
+/**
+ * Consistent-hash ring mapping string keys (ISBNs, user names) to nodes.
+ *
+ * Every node is placed on a 64-bit ring at many pseudo-random points
+ * ("virtual nodes"), and a key belongs to the node owning the first point at
+ * or after the key's hash. With enough points per node the keys spread evenly,
+ * and adding or removing a node only moves the keys between its points and
+ * their predecessors: about 1/N of them rather than nearly all, as hash mod N
+ * would. The ring is immutable; a lookup is a binary search over the sorted
+ * points.
+ */
+public final class ConsistentHashRing<T> {
+    public static final int DEFAULT_POINTS = 160;
+
+    private final List<T> nodes;
+    private final long[] points; // sorted hashes
+    private final int[] owners;  // owners[i]: index into nodes of points[i]
+
+    /** Ring over the given nodes, each placed at pointsPerNode points derived from its label */
+    public ConsistentHashRing(List<T> nodes, List<String> labels, int pointsPerNode) {
+        if (nodes.isEmpty() || nodes.size() != labels.size()) throw new IllegalArgumentException("One label per node, at least one node");
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(nodes));
+        long[][] placed = new long[nodes.size() * pointsPerNode][];
+        int k = 0;
+        for (int n = 0; n < nodes.size(); n++) {
+            for (int p = 0; p < pointsPerNode; p++) placed[k++] = new long[]{hash(labels.get(n) + "#" + p), n};
+        }
+        // ties (vanishingly rare) go to the lower node index so the ring is deterministic
+        Arrays.sort(placed, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        points = new long[placed.length];
+        owners = new int[placed.length];
+        for (int i = 0; i < placed.length; i++) {
+            points[i] = placed[i][0];
+            owners[i] = (int) placed[i][1];
+        }
+    }
+
+    public T node(String key) {
+        return nodes.get(index(key));
+    }
+
+    /** Position in nodes() of the node owning key */
+    public int index(String key) {
+        if (nodes.size() == 1) return 0;
+        int at = Arrays.binarySearch(points, hash(key));
+        if (at < 0) at = -at - 1;
+        return owners[at == points.length ? 0 : at]; // wrap around the ring
+    }
+
+    public List<T> nodes() {
+        return nodes;
+    }
+
+    /** 64-bit FNV-1a over the chars (no encoding pass), finished with a MurmurHash3 mix to spread nearby keys */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0, n = key.length(); i < n; i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Allocation-free Levenshtein distance.
+ * Patterns of up to 64 ASCII chars use Myers' bit-parallel algorithm (one
+ * long per column); anything else uses a banded two-row DP. Both stop early
+ * once the distance is known to exceed the caller's cutoff. Work buffers are
+ * thread-local and reused, so steady-state comparisons allocate nothing.
+ */
+public final class EditDistance {
+    private static final int ASCII = 128;
+
+    private static final class Buffers {
+        final long[] peq = new long[ASCII];
+        int[] prev = new int[64];
+        int[] cur = new int[64];
+
+        void ensure(int len) {
+            if (prev.length < len) {
+                prev = new int[len * 2];
+                cur = new int[len * 2];
+            }
+        }
+    }
+
+    private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+    private EditDistance() {}
+
+    public static int distance(String a, String b) {
+        return bounded(a, b, Integer.MAX_VALUE - 1);
+    }
+
+    /**
+     * Edit distance between a and b if it is at most max, otherwise any value > max
+     * (callers only need to know it cannot beat max).
+     */
+    public static int bounded(String a, String b, int max) {
+        int n = a.length(), m = b.length();
+        if (Math.abs(n - m) > max) return max + 1;
+        if (n == 0) return m;
+        if (m == 0) return n;
+        if (n <= 64 && isAscii(a)) return myers(a, b, max);
+        if (m <= 64 && isAscii(b)) return myers(b, a, max);
+        return banded(a, b, max);
+    }
+
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++) if (s.charAt(i) >= ASCII) return false;
+        return true;
+    }
+
+    /** Myers/Hyyrö bit-vector edit distance; pattern p has 1..64 ASCII chars */
+    private static int myers(String p, String t, int max) {
+        long[] peq = BUFFERS.get().peq;
+        int m = p.length(), n = t.length();
+        for (int i = 0; i < m; i++) peq[p.charAt(i)] |= 1L << i;
+
+        long pv = -1L, mv = 0L, last = 1L << (m - 1);
+        int score = m;
+        try {
+            for (int j = 0; j < n; j++) {
+                char c = t.charAt(j);
+                long eq = c < ASCII ? peq[c] : 0L;
+                long xv = eq | mv;
+                long xh = (((eq & pv) + pv) ^ pv) | eq;
+                long ph = mv | ~(xh | pv);
+                long mh = pv & xh;
+                if ((ph & last) != 0) score++;
+                else if ((mh & last) != 0) score--;
+                // the remaining columns can lower the score by at most one each
+                if (score - (n - j - 1) > max) return max + 1;
+                ph = (ph << 1) | 1L;
+                mh <<= 1;
+                pv = mh | ~(xv | ph);
+                mv = ph & xv;
+            }
+            return score;
+        } finally {
+            for (int i = 0; i < m; i++) peq[p.charAt(i)] = 0L;
+        }
+    }
+
+    /** Two-row DP restricted to the diagonal band |i - j| <= max */
+    private static int banded(String a, String b, int max) {
+        int n = a.length(), m = b.length();
+        Buffers buf = BUFFERS.get();
+        buf.ensure(m + 1);
+        int[] prev = buf.prev, cur = buf.cur;
+        int inf = max + 1;
+        int band = Math.min(max, Math.max(n, m));
+
+        for (int j = 0; j <= m; j++) prev[j] = j <= band ? j : inf;
+        for (int i = 1; i <= n; i++) {
+            int from = Math.max(1, i - band), to = Math.min(m, i + band);
+            cur[0] = i <= band ? i : inf;
+            if (from > 1) cur[from - 1] = inf;
+            int rowMin = cur[0];
+            char ca = a.charAt(i - 1);
+            for (int j = from; j <= to; j++) {
+                int v = ca == b.charAt(j - 1)
+                        ? prev[j - 1]
+                        : 1 + Math.min(Math.min(prev[j], cur[j - 1]), prev[j - 1]);
+                if (v > inf) v = inf;
+                cur[j] = v;
+                if (v < rowMin) rowMin = v;
+            }
+            if (to < m) cur[to + 1] = inf;
+            if (rowMin > max) return inf;
+            int[] tmp = prev; prev = cur; cur = tmp;
+        }
+        return prev[m];
+    }
+}
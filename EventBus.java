@@ -0,0 +1,199 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Fan-out of library change events to Server-Sent Events subscribers.
+ *
+ * Events go into a fixed ring of pre-encoded SSE frames. A producer (a Library
+ * mutation, under its book's lock) claims the next sequence number with one
+ * atomic increment and is the only writer of that slot, so publishing never
+ * waits for a lock or for a subscriber; each frame is encoded once, however many
+ * subscribers read it. Every subscriber has its own thread that follows the ring
+ * at its own pace and writes to its connection. A subscriber that falls more
+ * than a ring behind (a slow or stalled client) has been lapped: it gets a
+ * "resync" frame with a fresh snapshot and continues from the newest event, so
+ * a slow reader costs only itself.
+ *
+ * Producers check active() first and skip building events while nobody
+ * listens. Counters in events are deltas; the snapshot in "hello" and "resync"
+ * frames, and the periodic "stats" frames the server publishes, carry
+ * absolute values that correct any drift.
+ */
+public final class EventBus implements Closeable {
+    private static final long IDLE_PARK_NANOS = 20_000_000L;     // subscriber poll interval when caught up
+    private static final long KEEPALIVE_NANOS = 15_000_000_000L; // comment line that also detects closed clients
+
+    private final AtomicReferenceArray<Frame> ring;
+    private final int mask;
+    private final AtomicLong next = new AtomicLong(1); // sequence of the next event; ids start at 1
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private final int maxSubscribers;
+    private final Supplier<String> snapshot;
+    private final AtomicInteger threadIds = new AtomicInteger();
+    private volatile boolean closed;
+
+    private static final class Frame {
+        final long seq;
+        final byte[] bytes;
+
+        Frame(long seq, byte[] bytes) {
+            this.seq = seq;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * @param capacity       events kept for subscribers to catch up on (rounded up to a power of two)
+     * @param maxSubscribers concurrent streams; each one holds a thread
+     * @param snapshot       JSON of the current counters, sent on connect and on resync
+     */
+    public EventBus(int capacity, int maxSubscribers, Supplier<String> snapshot) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.ring = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.maxSubscribers = maxSubscribers;
+        this.snapshot = snapshot;
+    }
+
+    /** True while at least one subscriber is connected */
+    public boolean active() {
+        return subscribers.get() > 0;
+    }
+
+    public int subscriberCount() {
+        return subscribers.get();
+    }
+
+    /** Sequence number the next event will get */
+    public long nextSequence() {
+        return next.get();
+    }
+
+    // ====== Producers ======
+    /** Append an event of the given type; json is its data line (one line, no newlines) */
+    public void publish(String type, String json) {
+        long seq = next.getAndIncrement();
+        ring.set((int) seq & mask, new Frame(seq, frame(seq, type, json)));
+    }
+
+    /** Render an event with JsonWriter into a String for publish */
+    public static String json(JsonBody body) {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(128);
+        try (JsonWriter w = new JsonWriter(buf)) {
+            body.write(w);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // in-memory: not expected
+        }
+        return new String(buf.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /** Writes one event's JSON object */
+    public interface JsonBody {
+        void write(JsonWriter w) throws IOException;
+    }
+
+    private static byte[] frame(long seq, String type, String json) {
+        StringBuilder sb = new StringBuilder(json.length() + type.length() + 32);
+        if (seq > 0) sb.append("id: ").append(seq).append('\n');
+        sb.append("event: ").append(type).append('\n').append("data: ").append(json).append("\n\n");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // ====== Subscribers ======
+    /**
+     * Reserve a place for a new stream; null when the subscriber limit is reached.
+     * lastEventId is the SSE Last-Event-ID of a reconnecting client (or null): if
+     * everything after it is still in the ring the stream resumes there.
+     */
+    public Subscriber open(String lastEventId) {
+        if (closed) return null;
+        int n;
+        do {
+            n = subscribers.get();
+            if (n >= maxSubscribers) return null;
+        } while (!subscribers.compareAndSet(n, n + 1));
+        long resume = -1;
+        if (lastEventId != null) {
+            try {
+                long id = Long.parseLong(lastEventId.trim());
+                if (id > 0 && id < next.get() && next.get() - (id + 1) <= mask) resume = id + 1;
+            } catch (NumberFormatException ignored) {
+                // a stale or foreign id: start over with a snapshot
+            }
+        }
+        return new Subscriber(resume);
+    }
+
+    /** One SSE stream, run on its own daemon thread by start */
+    public final class Subscriber {
+        private final long resumeAt;
+
+        private Subscriber(long resumeAt) {
+            this.resumeAt = resumeAt;
+        }
+
+        /** Stream frames to out until the client goes away or the bus closes, then run onClose */
+        public void start(OutputStream out, Runnable onClose) {
+            Thread t = new Thread(() -> {
+                try {
+                    stream(out);
+                } catch (IOException e) {
+                    // client disconnected
+                } finally {
+                    subscribers.decrementAndGet();
+                    onClose.run();
+                }
+            }, "library-events-" + threadIds.incrementAndGet());
+            t.setDaemon(true);
+            t.start();
+        }
+
+        private void stream(OutputStream out) throws IOException {
+            out.write("retry: 2000\n\n".getBytes(StandardCharsets.UTF_8));
+            long cursor = resumeAt;
+            if (cursor < 0) {
+                // position first: events from here on may already be in the snapshot, and applying a delta twice
+                // is corrected by the next stats frame, while a missed one would not be
+                cursor = next.get();
+                out.write(frame(0, "hello", snapshot.get()));
+            }
+            out.flush();
+            long lastWrite = System.nanoTime();
+            while (!closed) {
+                Frame f = ring.get((int) cursor & mask);
+                if (f != null && f.seq == cursor) {
+                    out.write(f.bytes);
+                    cursor++;
+                    lastWrite = 0; // flush once caught up
+                } else if (f != null && f.seq > cursor || next.get() - cursor > mask + 1) {
+                    // lapped: the events we missed are overwritten
+                    cursor = next.get();
+                    out.write(frame(0, "resync", snapshot.get()));
+                    lastWrite = 0;
+                } else {
+                    long now = System.nanoTime();
+                    if (lastWrite == 0) {
+                        out.flush();
+                        lastWrite = now;
+                    } else if (now - lastWrite > KEEPALIVE_NANOS) {
+                        out.write(": keepalive\n\n".getBytes(StandardCharsets.UTF_8));
+                        out.flush();
+                        lastWrite = now;
+                    }
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            }
+        }
+    }
+
+    /** Stop all streams (their threads notice within one poll interval) and refuse new ones */
+    @Override
+    public void close() {
+        closed = true;
+    }
+}
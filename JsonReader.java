@@ -0,0 +1,198 @@
+import java.util.*;
+
+/**
+ * Minimal JSON parser for request bodies and JSONL import lines. Produces
+ * LinkedHashMap for objects, ArrayList for arrays, String, Long or Double for
+ * numbers, Boolean and null. Malformed input raises IllegalArgumentException
+ * with the offending position; so does nesting deeper than MAX_DEPTH, which
+ * would otherwise overflow the stack of this recursive-descent parser.
+ */
+public final class JsonReader {
+    // as JsonWriter: far more than any request or import record needs
+    private static final int MAX_DEPTH = 64;
+
+    private final CharSequence in;
+    private int pos;
+    private int depth;
+
+    private JsonReader(CharSequence in) {
+        this.in = in;
+    }
+
+    /** Parse one JSON value that makes up the whole input (surrounding whitespace allowed) */
+    public static Object parse(CharSequence text) {
+        JsonReader r = new JsonReader(text);
+        Object value = r.value();
+        r.skipWhitespace();
+        if (r.pos != text.length()) throw r.error("trailing characters");
+        return value;
+    }
+
+    /** Parse an input that must be a JSON object */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> parseObject(CharSequence text) {
+        Object value = parse(text);
+        if (!(value instanceof Map)) throw new IllegalArgumentException("Expected a JSON object");
+        return (Map<String, Object>) value;
+    }
+
+    /** Field as a string (numbers and booleans converted), or null if absent or null */
+    public static String string(Map<String, Object> object, String field) {
+        Object v = object.get(field);
+        return v == null ? null : v.toString();
+    }
+
+    private Object value() {
+        skipWhitespace();
+        if (pos >= in.length()) throw error("unexpected end of input");
+        char c = in.charAt(pos);
+        switch (c) {
+            case '{':
+            case '[': {
+                if (++depth > MAX_DEPTH) throw error("nesting too deep");
+                Object nested = c == '{' ? object() : array();
+                depth--;
+                return nested;
+            }
+            case '"': return string();
+            case 't': return literal("true", Boolean.TRUE);
+            case 'f': return literal("false", Boolean.FALSE);
+            case 'n': return literal("null", null);
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) return number();
+                throw error("unexpected character '" + c + "'");
+        }
+    }
+
+    private Map<String, Object> object() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        pos++; // {
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return map;
+        }
+        while (true) {
+            skipWhitespace();
+            if (peek() != '"') throw error("expected field name");
+            String name = string();
+            skipWhitespace();
+            expect(':');
+            map.put(name, value());
+            skipWhitespace();
+            char c = next();
+            if (c == '}') return map;
+            if (c != ',') throw error("expected ',' or '}'");
+        }
+    }
+
+    private List<Object> array() {
+        List<Object> list = new ArrayList<>();
+        pos++; // [
+        skipWhitespace();
+        if (peek() == ']') {
+            pos++;
+            return list;
+        }
+        while (true) {
+            list.add(value());
+            skipWhitespace();
+            char c = next();
+            if (c == ']') return list;
+            if (c != ',') throw error("expected ',' or ']'");
+        }
+    }
+
+    private String string() {
+        pos++; // opening quote
+        StringBuilder sb = null;
+        int start = pos;
+        while (true) {
+            if (pos >= in.length()) throw error("unterminated string");
+            char c = in.charAt(pos++);
+            if (c == '"') {
+                if (sb == null) return in.subSequence(start, pos - 1).toString();
+                return sb.toString();
+            }
+            if (c == '\\') {
+                if (sb == null) sb = new StringBuilder().append(in, start, pos - 1);
+                char e = next();
+                switch (e) {
+                    case '"': case '\\': case '/': sb.append(e); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'u':
+                        if (pos + 4 > in.length()) throw error("bad unicode escape");
+                        try {
+                            sb.append((char) Integer.parseInt(in.subSequence(pos, pos + 4).toString(), 16));
+                        } catch (NumberFormatException ex) {
+                            throw error("bad unicode escape");
+                        }
+                        pos += 4;
+                        break;
+                    default: throw error("bad escape '\\" + e + "'");
+                }
+            } else if (c < 0x20) {
+                throw error("control character in string");
+            } else if (sb != null) {
+                sb.append(c);
+            }
+        }
+    }
+
+    private Object number() {
+        int start = pos;
+        boolean integral = true;
+        if (peek() == '-') pos++;
+        while (pos < in.length()) {
+            char c = in.charAt(pos);
+            if (c >= '0' && c <= '9') pos++;
+            else if (c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+                integral = false;
+                pos++;
+            } else break;
+        }
+        String text = in.subSequence(start, pos).toString();
+        try {
+            return integral ? (Object) Long.parseLong(text) : (Object) Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            throw error("bad number '" + text + "'");
+        }
+    }
+
+    private Object literal(String word, Object value) {
+        for (int i = 0; i < word.length(); i++) {
+            if (pos + i >= in.length() || in.charAt(pos + i) != word.charAt(i)) throw error("unexpected token");
+        }
+        pos += word.length();
+        return value;
+    }
+
+    private void skipWhitespace() {
+        while (pos < in.length()) {
+            char c = in.charAt(pos);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') break;
+            pos++;
+        }
+    }
+
+    private char peek() {
+        return pos < in.length() ? in.charAt(pos) : '\0';
+    }
+
+    private char next() {
+        if (pos >= in.length()) throw error("unexpected end of input");
+        return in.charAt(pos++);
+    }
+
+    private void expect(char c) {
+        if (next() != c) throw error("expected '" + c + "'");
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Invalid JSON at " + pos + ": " + message);
+    }
+}
@@ -0,0 +1,167 @@
+import java.io.*;
+
+/**
+ * Minimal streaming JSON writer. Encodes UTF-8 straight into a small byte
+ * buffer that is flushed to the underlying stream as it fills, so responses of
+ * any size are written without building an intermediate String. Commas are
+ * inserted automatically; strings are escaped per RFC 8259.
+ */
+public final class JsonWriter implements Closeable, Flushable {
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final int MAX_DEPTH = 64;
+
+    private final OutputStream out;
+    private final byte[] buf = new byte[8192];
+    private int pos;
+    private int depth;
+    private long hasElements; // bit d: container at depth d already holds an element
+    private boolean afterName;
+
+    public JsonWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        return open('[');
+    }
+
+    public JsonWriter endArray() throws IOException {
+        return close(']');
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        return open('{');
+    }
+
+    public JsonWriter endObject() throws IOException {
+        return close('}');
+    }
+
+    public JsonWriter name(String name) throws IOException {
+        beforeValue();
+        string(name);
+        write(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) throws IOException {
+        beforeValue();
+        if (value == null) raw("null");
+        else string(value);
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        beforeValue();
+        raw(Long.toString(value));
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        beforeValue();
+        raw(value ? "true" : "false");
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (pos > 0) {
+            out.write(buf, 0, pos);
+            pos = 0;
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        out.close();
+    }
+
+    // ====== Internals ======
+    private JsonWriter open(char c) throws IOException {
+        if (depth == MAX_DEPTH) throw new IllegalStateException("JSON nesting deeper than " + MAX_DEPTH);
+        beforeValue();
+        write(c);
+        depth++;
+        hasElements &= ~(1L << depth);
+        return this;
+    }
+
+    private JsonWriter close(char c) throws IOException {
+        if (depth == 0) throw new IllegalStateException("No open JSON container");
+        depth--;
+        write(c);
+        return this;
+    }
+
+    private void beforeValue() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if ((hasElements & (1L << depth)) != 0) write(',');
+        hasElements |= 1L << depth;
+    }
+
+    private void raw(String ascii) throws IOException {
+        for (int i = 0; i < ascii.length(); i++) write(ascii.charAt(i));
+    }
+
+    private void string(String s) throws IOException {
+        write('"');
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                write('\\');
+                write(c);
+            } else if (c < 0x20) {
+                escapeControl(c);
+            } else if (c < 0x80) {
+                write(c);
+            } else if (c < 0x800) {
+                write(0xC0 | (c >> 6));
+                write(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                write(0xF0 | (cp >> 18));
+                write(0x80 | ((cp >> 12) & 0x3F));
+                write(0x80 | ((cp >> 6) & 0x3F));
+                write(0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                write('?'); // unpaired surrogate has no UTF-8 encoding
+            } else {
+                write(0xE0 | (c >> 12));
+                write(0x80 | ((c >> 6) & 0x3F));
+                write(0x80 | (c & 0x3F));
+            }
+        }
+        write('"');
+    }
+
+    private void escapeControl(char c) throws IOException {
+        write('\\');
+        switch (c) {
+            case '\n': write('n'); break;
+            case '\r': write('r'); break;
+            case '\t': write('t'); break;
+            case '\b': write('b'); break;
+            case '\f': write('f'); break;
+            default:
+                write('u');
+                write('0');
+                write('0');
+                write(HEX[c >> 4]);
+                write(HEX[c & 0xF]);
+        }
+    }
+
+    private void write(int b) throws IOException {
+        if (pos == buf.length) {
+            out.write(buf, 0, pos);
+            pos = 0;
+        }
+        buf[pos++] = (byte) b;
+    }
+}
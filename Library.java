@@ -1,5 +1,17 @@
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
 
 /**
  * Core library management: books, users, persistence, search, borrow/return,
@@ -9,21 +21,251 @@ public class Library implements Serializable {
     private static final long serialVersionUID = 1L;
 
     // primary stores
-    private Map<String, Book> booksByIsbn = new HashMap<>(); // ISBN -> Book
-    private Map<String, User> usersByName = new HashMap<>(); // name -> User
+    // ISBN -> Book, kept in ISBN order so catalog listings can page by cursor
+    private Map<String, Book> booksByIsbn = new ConcurrentSkipListMap<>();
+    private Map<String, User> usersByName = new ConcurrentHashMap<>(); // name -> User
     private LibraryGraph graph = new LibraryGraph();
     private CategoryNode categoryRoot = new CategoryNode("ROOT");
 
-    // persistence file
-    private static final String SAVE_FILE = "library_data.ser";
+    // secondary indexes (rebuilt after deserialization)
+    private transient TitleIndex titleIndex = new TitleIndex();
+    private transient SearchIndex searchIndex = new SearchIndex();
+    private transient SimilarityIndex similarityIndex = new SimilarityIndex();
+    private transient CoBorrowIndex coBorrowIndex = new CoBorrowIndex();
+    // dense ids, availability bits and shared author/category/shelf strings
+    private transient CatalogStore store = new CatalogStore();
+    private transient CategoryIndex categories = CategoryIndex.build(categoryRoot, store);
+    private transient LibraryStats stats = new LibraryStats(() -> store.availableCount());
+    // bumped after every visible mutation; the narrower counters below only after
+    // their kind, so a cached read response can compare against just what it shows
+    private transient AtomicLong version = new AtomicLong();
+    private transient AtomicLong catalogVersion = new AtomicLong();      // books added or replaced
+    private transient AtomicLong availabilityVersion = new AtomicLong(); // book statuses: on or off the shelf, held
+    private transient AtomicLong historyVersion = new AtomicLong();      // borrow histories, see User.historyStamp
+    // change events for live clients (null: nobody asked for them)
+    private transient volatile EventBus events;
+    // as a shard: the users whose histories live here (null: everyone), and
+    // {user, title} loans of the others, waiting to be forwarded to their home shard
+    private transient volatile Predicate<String> historyHome;
+    private transient ConcurrentLinkedQueue<String[]> remoteLoans = new ConcurrentLinkedQueue<>();
+
+    // reservation holds: a returned book waits this long for the next waiter to pick it up
+    // (library.holdHours; 0 issues it to the waiter on return, as before holds existed)
+    private static final long HOLD_MILLIS = TimeUnit.HOURS.toMillis(Long.getLong("library.holdHours", 48));
+    private transient Map<String, Hold> holds = new ConcurrentHashMap<>(); // isbn -> hold
+    private transient TimingWheel<Hold> holdWheel = new TimingWheel<>(1000, System.currentTimeMillis());
+
+    /** A returned book set aside for user until deadline (epoch millis) */
+    static final class Hold {
+        final String isbn, user;
+        final long deadline;
+        TimingWheel.Timer<Hold> timer;
+
+        Hold(String isbn, String user, long deadline) {
+            this.isbn = isbn;
+            this.user = user;
+            this.deadline = deadline;
+        }
+    }
+
+    // per-ISBN lock striping: borrows/returns of different books proceed in parallel
+    private static final int LOCK_STRIPES = 256;
+    private transient ReentrantLock[] bookLocks = newLocks();
+    // largest borrowBooks/returnBooks batch, and longest ISBN or user name in one: even at
+    // three UTF-8 bytes per char a full batch stays well inside one journal record
+    public static final int MAX_BATCH = 1000;
+    public static final int MAX_BATCH_KEY = 128;
+
+    // persistence: binary snapshot plus write-ahead journal segments in one data directory
+    // (library.data.dir; each shard of a ShardedLibrary has a directory of its own)
+    static final Path DATA_DIR = Paths.get(System.getProperty("library.data.dir", "."));
+    private static final String SAVE_FILE = "library_data.snap";
+    private static final String LEGACY_SAVE_FILE = "library_data.ser"; // Java serialization, read-only now
+    private transient Path dataDir = DATA_DIR;
+    private long journalSeq; // last journal record covered by this snapshot
+    private transient LibraryJournal journal;
+    // mutations share the read side; a checkpoint takes the write side for a consistent cut
+    private transient ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+
+    // metrics (see Metrics); looked up once so recording stays allocation-free
+    private static final LatencyHistogram SEARCH_TIME = Metrics.OPERATIONS.get("searchByTitleBinary");
+    private static final LatencyHistogram RECOMMEND_TIME = Metrics.OPERATIONS.get("recommendByLastBorrow");
+    private static final LatencyHistogram SAVE_TIME = Metrics.OPERATIONS.get("saveState");
+    private static final LatencyHistogram LOAD_TIME = Metrics.OPERATIONS.get("loadState");
+    private static final LatencyHistogram ADD_LOCK_WAIT = Metrics.LOCK_WAIT.get("addBook");
+    private static final LatencyHistogram BORROW_LOCK_WAIT = Metrics.LOCK_WAIT.get("borrowBook");
+    private static final LatencyHistogram RETURN_LOCK_WAIT = Metrics.LOCK_WAIT.get("returnBook");
+
+    public Library() {
+    }
+
+    /** A library persisting to the given directory instead of library.data.dir */
+    Library(Path dataDir) {
+        this.dataDir = dataDir;
+    }
 
     // ====== CRUD ======
     public void addBook(Book b) {
-        booksByIsbn.put(b.isbn, b);
+        long seq;
+        ReentrantLock lock = lockBook(b.isbn, ADD_LOCK_WAIT);
+        try {
+            seq = log(LibraryJournal.ADD_BOOK, b.isbn, b.title, b.author, b.category, b.shelf);
+            Book old = booksByIsbn.get(b.isbn);
+            boolean wasAvailable = old != null && old.isAvailable();
+            if (old != null) {
+                // the replacement starts on the shelf: an uncollected hold on the old copy lapses
+                // (replaying this ADD_BOOK record drops it again, so it needs no record of its own)
+                dropHold(b.isbn);
+                stats.bookRemoved(old);
+                titleIndex.remove(old);
+                searchIndex.remove(old);
+                similarityIndex.remove(old);
+                categories.bookRemoved(old);
+                store.replace(old, b);
+            } else {
+                store.add(b);
+            }
+            categories.bookAdded(b);
+            booksByIsbn.put(b.isbn, b);
+            stats.bookAdded(b);
+            titleIndex.add(b);
+            searchIndex.add(b);
+            similarityIndex.add(b);
+            catalogVersion.incrementAndGet();
+            version.incrementAndGet();
+            emitBook(b, old == null, (b.isAvailable() ? 1 : 0) - (wasAvailable ? 1 : 0));
+        } finally {
+            unlockBook(lock);
+        }
+        awaitDurable(seq);
+    }
+
+    /**
+     * Add many new books at once (bulk import). ISBNs already in the catalog are
+     * skipped. A batch of at least a tenth of the resulting catalog rebuilds
+     * every secondary index once instead of updating them per book, and with a
+     * journal open is made durable by a checkpoint, which costs about as much
+     * as the rebuild. A smaller batch is journaled as ADD_BOOKS records instead,
+     * so importing a few books into a large catalog does not rewrite the whole
+     * snapshot. Returns the number of books added.
+     */
+    public int addBooks(Collection<Book> books) throws IOException {
+        long seq = 0;
+        List<Book> added = new ArrayList<>();
+        checkpointLock.writeLock().lock();
+        try {
+            Set<String> seen = new HashSet<>();
+            for (Book b : books) {
+                if (!booksByIsbn.containsKey(b.isbn) && seen.add(b.isbn)) added.add(b);
+            }
+            if (added.isEmpty()) return 0;
+            boolean rebuild = added.size() * 10L >= booksByIsbn.size() + added.size();
+            if (!rebuild) seq = logBooks(added);
+            for (Book b : added) booksByIsbn.put(b.isbn, b);
+            if (rebuild) {
+                rebuildIndexes();
+            } else {
+                // a small batch into a large catalog: incremental updates are cheaper
+                for (Book b : added) {
+                    store.add(b);
+                    categories.bookAdded(b);
+                    stats.bookAdded(b);
+                    titleIndex.add(b);
+                    searchIndex.add(b);
+                    similarityIndex.add(b);
+                }
+            }
+            catalogVersion.incrementAndGet();
+            version.incrementAndGet();
+            emitBooks(added);
+            // unjournaled: checkpoint before a later record can refer to one of these books
+            if (rebuild && journal != null) saveState();
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+        awaitDurable(seq);
+        return added.size();
+    }
+
+    /**
+     * Journal books as ADD_BOOKS records of up to half MAX_RECORD each and return
+     * the last one's sequence number. A book with a field too long to journal
+     * fails the whole batch before the first record is written.
+     */
+    private long logBooks(List<Book> books) {
+        if (journal == null) return 0;
+        for (Book b : books) {
+            for (String f : bookFields(b)) {
+                if (LibraryJournal.encodedSize(f) - 2 > LibraryJournal.MAX_FIELD) {
+                    throw new IllegalArgumentException("Book " + b.isbn + " has a field longer than 64 KB");
+                }
+            }
+        }
+        List<String> fields = new ArrayList<>();
+        int bytes = 0;
+        long seq = 0;
+        for (Book b : books) {
+            String[] bf = bookFields(b);
+            int size = 0;
+            for (String f : bf) size += LibraryJournal.encodedSize(f);
+            if (!fields.isEmpty() && (bytes + size > LibraryJournal.MAX_RECORD / 2 || fields.size() + bf.length > 0xFFFF)) {
+                seq = log(LibraryJournal.ADD_BOOKS, fields.toArray(new String[0]));
+                fields.clear();
+                bytes = 0;
+            }
+            Collections.addAll(fields, bf);
+            bytes += size;
+        }
+        return fields.isEmpty() ? seq : log(LibraryJournal.ADD_BOOKS, fields.toArray(new String[0]));
     }
 
-    public void addUser(User u) {
-        usersByName.put(u.name, u);
+    private static String[] bookFields(Book b) {
+        return new String[]{b.isbn, b.title, b.author, b.category, b.shelf};
+    }
+
+    /** Add or replace a user; returns true if no user had this name before */
+    public boolean addUser(User u) {
+        long seq;
+        boolean added;
+        checkpointLock.readLock().lock();
+        try {
+            seq = log(LibraryJournal.ADD_USER, u.name, u.contact);
+            u.historyStamp = historyVersion.incrementAndGet();
+            added = usersByName.put(u.name, u) == null;
+            if (added) stats.userAdded();
+            version.incrementAndGet();
+            emitUser(u, added);
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        awaitDurable(seq);
+        return added;
+    }
+
+    /**
+     * Add a user unless one of that name exists (the existing record and its
+     * history are kept). A borrow racing with this sees the user only after
+     * its ADD_USER record is journaled.
+     */
+    boolean addUserIfAbsent(User u) {
+        if (usersByName.containsKey(u.name)) return false;
+        long[] seq = {0};
+        boolean[] added = {false};
+        checkpointLock.readLock().lock();
+        try {
+            usersByName.computeIfAbsent(u.name, name -> {
+                seq[0] = log(LibraryJournal.ADD_USER, u.name, u.contact);
+                stats.userAdded();
+                u.historyStamp = historyVersion.incrementAndGet();
+                version.incrementAndGet();
+                added[0] = true;
+                return u;
+            });
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        awaitDurable(seq[0]);
+        return added[0];
     }
 
     public Book getBookByIsbn(String isbn) {
@@ -34,21 +276,109 @@ public class Library implements Serializable {
         return usersByName.get(name);
     }
 
+    private static ReentrantLock[] newLocks() {
+        ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+        for (int i = 0; i < locks.length; i++) locks[i] = new ReentrantLock();
+        return locks;
+    }
+
+    private static int stripe(String isbn) {
+        int h = isbn.hashCode();
+        return (h ^ (h >>> 16)) & (LOCK_STRIPES - 1);
+    }
+
+    private ReentrantLock lockFor(String isbn) {
+        return bookLocks[stripe(isbn)];
+    }
+
+    private ReentrantLock lockBook(String isbn, LatencyHistogram waitTime) {
+        long t0 = System.nanoTime();
+        checkpointLock.readLock().lock();
+        ReentrantLock lock = lockFor(isbn);
+        lock.lock();
+        waitTime.recordSince(t0);
+        return lock;
+    }
+
+    private void unlockBook(ReentrantLock lock) {
+        lock.unlock();
+        checkpointLock.readLock().unlock();
+    }
+
+    /**
+     * Lock the stripes of all the ISBNs at once. Every batch takes its stripes in
+     * ascending order and single operations hold just one, so none can deadlock.
+     */
+    private ReentrantLock[] lockBooks(Collection<String> isbns, LatencyHistogram waitTime) {
+        long t0 = System.nanoTime();
+        int[] stripes = isbns.stream().mapToInt(Library::stripe).distinct().sorted().toArray();
+        checkpointLock.readLock().lock();
+        ReentrantLock[] locks = new ReentrantLock[stripes.length];
+        for (int i = 0; i < stripes.length; i++) {
+            locks[i] = bookLocks[stripes[i]];
+            locks[i].lock();
+        }
+        waitTime.recordSince(t0);
+        return locks;
+    }
+
+    private void unlockBooks(ReentrantLock[] locks) {
+        for (int i = locks.length - 1; i >= 0; i--) locks[i].unlock();
+        checkpointLock.readLock().unlock();
+    }
+
     // ====== Borrowing ======
-    public synchronized String borrowBook(String userName, String isbn) {
+    public String borrowBook(String userName, String isbn) {
         User user = usersByName.get(userName);
-        Book book = booksByIsbn.get(isbn);
         if (user == null) return "User not found";
+        long[] seq = {0};
+        String result;
+        ReentrantLock lock = lockBook(isbn, BORROW_LOCK_WAIT);
+        try {
+            result = borrowLocked(user, isbn, seq);
+        } finally {
+            unlockBook(lock);
+        }
+        awaitDurable(seq[0]);
+        return result;
+    }
+
+    /**
+     * Borrow under the book's lock: pick up a hold, issue, or join the waiting
+     * list. Journals into seq[0], or not at all when seq is null (the caller
+     * journaled the whole batch).
+     */
+    private String borrowLocked(User user, String isbn, long[] seq) {
+        Book book = booksByIsbn.get(isbn);
         if (book == null) return "Book not found";
 
-        if (book.isAvailable()) {
-            book.setAvailable(false);
-            user.addToHistory(book.title);
+        Hold hold = holds.get(isbn);
+        if (hold != null && hold.user.equals(user.name)) {
+            // picking up a held book
+            if (seq != null) seq[0] = log(LibraryJournal.ISSUE, user.name, isbn);
+            dropHold(isbn);
+            // a held book is normally off the shelf already; make sure the copy cannot be issued twice
+            int availableDelta = book.isAvailable() ? -1 : 0;
+            setAvailable(book, false);
+            recordBorrow(user, book.title);
+            version.incrementAndGet();
+            emitStatus(book, "Borrowed", user.name, "pickup", availableDelta, 0);
+            return String.format("SUCCESS: %s issued to %s", book.title, user.name);
+        } else if (book.isAvailable()) {
+            if (seq != null) seq[0] = log(LibraryJournal.ISSUE, user.name, isbn);
+            setAvailable(book, false);
+            recordBorrow(user, book.title);
+            version.incrementAndGet();
+            emitStatus(book, "Borrowed", user.name, "borrow", -1, 0);
             return String.format("SUCCESS: %s issued to %s", book.title, user.name);
         } else {
             // add to waiting queue only if not already present
-            if (!book.waitingQueue.contains(user.name)) {
-                book.waitingQueue.add(user.name);
+            if (!book.isWaiting(user.name)) {
+                if (seq != null) seq[0] = log(LibraryJournal.WAIT, user.name, isbn);
+                book.addWaiter(user.name);
+                stats.waitlistChanged(1);
+                version.incrementAndGet();
+                emitStatus(book, statusOf(book), user.name, "waitlist", 0, 1);
                 return String.format("Placed %s in waiting list for %s", user.name, book.title);
             } else {
                 return "Already in waiting list";
@@ -56,41 +386,430 @@ public class Library implements Serializable {
         }
     }
 
-    public synchronized String returnBook(String isbn) {
-        Book book = booksByIsbn.get(isbn);
-        if (book == null) return "Book not found";
+    /**
+     * Borrow a batch of (user name, ISBN) pairs, e.g. everything scanned at a
+     * self-checkout kiosk. All the books' locks are taken once, in stripe order,
+     * the pairs naming an existing user and book are journaled as a single
+     * record and wait for one sync, and they are applied in order with the same
+     * outcome each borrowBook would have; the results line up with loans.
+     */
+    public List<String> borrowBooks(List<Map.Entry<String, String>> loans) {
+        checkLoans(loans);
+        if (loans.isEmpty()) return new ArrayList<>();
+        List<String> isbns = new ArrayList<>(loans.size());
+        for (Map.Entry<String, String> loan : loans) isbns.add(loan.getValue());
+        String[] results = new String[loans.size()];
+        User[] users = new User[loans.size()];
+        long seq = 0;
+        ReentrantLock[] locks = lockBooks(isbns, BORROW_LOCK_WAIT);
+        try {
+            // only pairs that can take effect go into the record; users are never removed
+            // and the books are locked, so they replay the same way
+            List<String> fields = new ArrayList<>(loans.size() * 2);
+            for (int i = 0; i < loans.size(); i++) {
+                Map.Entry<String, String> loan = loans.get(i);
+                users[i] = usersByName.get(loan.getKey());
+                if (users[i] == null) results[i] = "User not found";
+                else if (!booksByIsbn.containsKey(loan.getValue())) results[i] = "Book not found";
+                else Collections.addAll(fields, loan.getKey(), loan.getValue());
+            }
+            if (!fields.isEmpty()) seq = log(LibraryJournal.BORROW_BATCH, fields.toArray(new String[0]));
+            for (int i = 0; i < loans.size(); i++) {
+                if (results[i] == null) results[i] = borrowLocked(users[i], loans.get(i).getValue(), null);
+            }
+        } finally {
+            unlockBooks(locks);
+        }
+        awaitDurable(seq);
+        return Arrays.asList(results);
+    }
+
+    /** Refuse a borrowBooks batch too big for one journal record, before anything is locked or changed */
+    static void checkLoans(List<Map.Entry<String, String>> loans) {
+        checkBatchSize(loans.size());
+        for (Map.Entry<String, String> loan : loans) {
+            checkBatchKey(loan.getKey());
+            checkBatchKey(loan.getValue());
+        }
+    }
+
+    /** Refuse a returnBooks batch too big for one journal record, before anything is locked or changed */
+    static void checkIsbns(List<String> isbns) {
+        checkBatchSize(isbns.size());
+        for (String isbn : isbns) checkBatchKey(isbn);
+    }
 
-        if (!book.waitingQueue.isEmpty()) {
-            String nextUserName = book.waitingQueue.poll();
+    private static void checkBatchSize(int size) {
+        if (size > MAX_BATCH) throw new IllegalArgumentException("At most " + MAX_BATCH + " items per batch");
+    }
+
+    private static void checkBatchKey(String key) {
+        if (key == null) throw new IllegalArgumentException("Missing ISBN or user name in batch");
+        if (key.length() > MAX_BATCH_KEY) {
+            throw new IllegalArgumentException("ISBNs and user names in a batch are limited to " + MAX_BATCH_KEY + " characters");
+        }
+    }
+
+    /**
+     * Return a book. With waiters it is held for the first one that still exists
+     * (see expireHolds); returning a book that sits on an uncollected hold
+     * releases the hold and passes it on the same way.
+     */
+    public String returnBook(String isbn) {
+        return returnBook(isbn, System.currentTimeMillis(), HOLD_MILLIS > 0);
+    }
+
+    private String returnBook(String isbn, long now, boolean withHolds) {
+        long seq;
+        String result;
+        ReentrantLock lock = lockBook(isbn, RETURN_LOCK_WAIT);
+        try {
+            Book book = booksByIsbn.get(isbn);
+            if (book == null) return "Book not found";
+            seq = withHolds ? log(LibraryJournal.RETURN, isbn, Long.toString(now)) : log(LibraryJournal.RETURN, isbn);
+            result = returnLocked(book, now, withHolds);
+        } finally {
+            unlockBook(lock);
+        }
+        awaitDurable(seq);
+        return result;
+    }
+
+    /** Return under the book's lock, already journaled: release any hold, then pass the book on */
+    private String returnLocked(Book book, long now, boolean withHolds) {
+        Hold released = dropHold(book.isbn);
+        String result = passOn(book, now, withHolds, released != null ? "release" : "return");
+        version.incrementAndGet();
+        return result;
+    }
+
+    /**
+     * Return a batch of books, e.g. one book-drop scan run: one lock acquisition
+     * in stripe order, one journal record and one sync for the whole batch. The
+     * results line up with isbns.
+     */
+    public List<String> returnBooks(List<String> isbns) {
+        return returnBooks(isbns, System.currentTimeMillis(), HOLD_MILLIS > 0);
+    }
+
+    private List<String> returnBooks(List<String> isbns, long now, boolean withHolds) {
+        checkIsbns(isbns);
+        if (isbns.isEmpty()) return new ArrayList<>();
+        String[] results = new String[isbns.size()];
+        Book[] books = new Book[isbns.size()];
+        long seq = 0;
+        ReentrantLock[] locks = lockBooks(isbns, RETURN_LOCK_WAIT);
+        try {
+            // the time comes first, empty when holds are off (replayed as immediate reissues, like RETURN);
+            // then the ISBNs of books in the catalog, which are locked and so replay the same way
+            List<String> fields = new ArrayList<>(isbns.size() + 1);
+            fields.add(withHolds ? Long.toString(now) : "");
+            for (int i = 0; i < isbns.size(); i++) {
+                books[i] = booksByIsbn.get(isbns.get(i));
+                if (books[i] == null) results[i] = "Book not found";
+                else fields.add(isbns.get(i));
+            }
+            if (fields.size() > 1) seq = log(LibraryJournal.RETURN_BATCH, fields.toArray(new String[0]));
+            for (int i = 0; i < isbns.size(); i++) {
+                if (books[i] != null) results[i] = returnLocked(books[i], now, withHolds);
+            }
+        } finally {
+            unlockBooks(locks);
+        }
+        awaitDurable(seq);
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Hand a book that is back on the shelf to its first waiting user that still
+     * exists: as a hold, or (withHolds false) by issuing it right away. With no
+     * one waiting it becomes available. Caller holds the book's lock; reason
+     * only labels the change event.
+     */
+    private String passOn(Book book, long now, boolean withHolds, String reason) {
+        String nextUserName;
+        int polled = 0;
+        while ((nextUserName = book.pollWaiter()) != null) {
+            stats.waitlistChanged(-1);
+            polled++;
             User nextUser = usersByName.get(nextUserName);
-            if (nextUser != null) {
-                nextUser.addToHistory(book.title);
-                // book remains not available because reissued immediately
-                book.setAvailable(false);
+            if (nextUser == null) continue;
+            // book stays off the shelf: held for, or reissued to, the waiter
+            // (it was on the shelf only if a hold lapsed while nobody was waiting)
+            int availableDelta = book.isAvailable() ? -1 : 0;
+            setAvailable(book, false);
+            if (!withHolds) {
+                recordBorrow(nextUser, book.title);
+                emitStatus(book, "Borrowed", nextUser.name, reason, availableDelta, -polled);
                 return String.format("Book %s returned and issued to %s", book.title, nextUser.name);
-            } else {
-                // if user deleted, try next recursively (rare)
-                return returnBook(isbn);
             }
-        } else {
-            book.setAvailable(true);
-            return String.format("Book %s returned and now available", book.title);
+            Hold hold = new Hold(book.isbn, nextUser.name, now + HOLD_MILLIS);
+            holds.put(book.isbn, hold);
+            hold.timer = holdWheel.schedule(hold, hold.deadline);
+            availabilityVersion.incrementAndGet();
+            emitStatus(book, "Held", nextUser.name, reason, availableDelta, -polled);
+            return String.format("Book %s returned and held for %s", book.title, nextUser.name);
+        }
+        int availableDelta = book.isAvailable() ? 0 : 1;
+        setAvailable(book, true);
+        emitStatus(book, "Available", null, reason, availableDelta, -polled);
+        return String.format("Book %s returned and now available", book.title);
+    }
+
+    // ====== Change events (see EventBus) ======
+    /** Publish change events to bus from now on (null stops them) */
+    void publishTo(EventBus bus) {
+        events = bus;
+    }
+
+    private EventBus listening() {
+        EventBus bus = events;
+        return bus != null && bus.active() ? bus : null;
+    }
+
+    private void emitBook(Book b, boolean added, int availableDelta) {
+        EventBus bus = listening();
+        if (bus == null) return;
+        bus.publish("book", EventBus.json(w -> {
+            w.beginObject()
+                .name("isbn").value(b.isbn)
+                .name("title").value(b.title)
+                .name("author").value(b.author)
+                .name("category").value(b.category)
+                .name("shelf").value(b.shelf)
+                .name("status").value(statusOf(b));
+            writeDelta(w, added ? 1 : 0, availableDelta, 0, 0);
+            w.endObject();
+        }));
+    }
+
+    /** A batch import: one summary event instead of one per book */
+    private void emitBooks(List<Book> added) {
+        EventBus bus = listening();
+        if (bus == null) return;
+        int available = 0;
+        for (Book b : added) if (b.isAvailable()) available++;
+        int availableDelta = available;
+        bus.publish("books", EventBus.json(w -> {
+            w.beginObject().name("added").value(added.size());
+            writeDelta(w, added.size(), availableDelta, 0, 0);
+            w.endObject();
+        }));
+    }
+
+    private void emitUser(User u, boolean added) {
+        EventBus bus = listening();
+        if (bus == null) return;
+        bus.publish("user", EventBus.json(w -> {
+            w.beginObject().name("name").value(u.name).name("contact").value(u.contact);
+            writeDelta(w, 0, 0, added ? 1 : 0, 0);
+            w.endObject();
+        }));
+    }
+
+    /** A book's loan state changed: status is Available, Borrowed or Held (as in /api/books), user the borrower, holder or new waiter */
+    private void emitStatus(Book b, String status, String user, String reason, int availableDelta, int waitlistDelta) {
+        EventBus bus = listening();
+        if (bus == null) return;
+        bus.publish("status", EventBus.json(w -> {
+            w.beginObject()
+                .name("isbn").value(b.isbn)
+                .name("title").value(b.title)
+                .name("status").value(status)
+                .name("reason").value(reason);
+            if (user != null) w.name("user").value(user);
+            w.name("waiting").value(b.waitingCount());
+            writeDelta(w, 0, availableDelta, 0, waitlistDelta);
+            w.endObject();
+        }));
+    }
+
+    /** Counter changes caused by an event, non-zero ones only */
+    private static void writeDelta(JsonWriter w, int books, int available, int users, int waitlisted) throws IOException {
+        w.name("delta").beginObject();
+        if (books != 0) w.name("totalBooks").value(books);
+        if (available != 0) w.name("availableBooks").value(available);
+        if (books - available != 0) w.name("borrowedBooks").value(books - available);
+        if (users != 0) w.name("totalUsers").value(users);
+        if (waitlisted != 0) w.name("waitlisted").value(waitlisted);
+        w.endObject();
+    }
+
+    // ====== Reservation holds ======
+    /**
+     * Expire the holds whose pickup deadline has passed, passing each book on to
+     * its next waiter (or the shelf). The timing wheel hands back only what came
+     * due, so a call costs O(1) plus the expiries themselves however many holds
+     * are outstanding; the web server calls it every second. Returns the number
+     * of holds expired.
+     */
+    public int expireHolds() {
+        long now = System.currentTimeMillis();
+        int expired = 0;
+        for (Hold h : holdWheel.advance(now)) {
+            if (expireHold(h.isbn, h.user, now)) expired++;
+        }
+        return expired;
+    }
+
+    private boolean expireHold(String isbn, String user, long now) {
+        long seq;
+        ReentrantLock lock = lockBook(isbn, RETURN_LOCK_WAIT);
+        try {
+            Hold h = holds.get(isbn);
+            Book book = booksByIsbn.get(isbn);
+            // picked up, released or replaced by a newer hold in the meantime
+            if (h == null || !h.user.equals(user) || book == null) return false;
+            seq = log(LibraryJournal.HOLD_EXPIRED, isbn, user, Long.toString(now));
+            dropHold(isbn);
+            passOn(book, now, true, "expired");
+            version.incrementAndGet();
+        } finally {
+            unlockBook(lock);
+        }
+        awaitDurable(seq);
+        return true;
+    }
+
+    /** User a book is held for, or null */
+    public String holdFor(String isbn) {
+        Hold h = holds.get(isbn);
+        return h == null ? null : h.user;
+    }
+
+    /** Status as shown in /api/books and change events: Available, Held (off the shelf awaiting pickup) or Borrowed */
+    public String statusOf(Book b) {
+        if (b.isAvailable()) return "Available";
+        return holds.containsKey(b.isbn) ? "Held" : "Borrowed";
+    }
+
+    /** Remove a book's hold, if any, and its expiry timer; returns the hold */
+    private Hold dropHold(String isbn) {
+        Hold h = holds.remove(isbn);
+        if (h == null) return null;
+        holdWheel.cancel(h.timer);
+        availabilityVersion.incrementAndGet();
+        return h;
+    }
+
+    public int holdCount() {
+        return holds.size();
+    }
+
+    Collection<Hold> allHolds() {
+        return holds.values();
+    }
+
+    private void restoreHold(Hold h) {
+        holds.put(h.isbn, h);
+        h.timer = holdWheel.schedule(h, h.deadline);
+    }
+
+    /** Put a book on or take it off the shelf, keeping the category counts in step */
+    private void setAvailable(Book book, boolean available) {
+        if (book.isAvailable() == available) return;
+        categories.availabilityChanged(book, available);
+        book.setAvailable(available);
+        availabilityVersion.incrementAndGet();
+    }
+
+    /**
+     * Append to the user's history and feed the co-borrow index with the recent
+     * part of it. On a shard not home to the user, queue the loan for
+     * forwardLoans instead.
+     */
+    private void recordBorrow(User user, String title) {
+        Predicate<String> home = historyHome;
+        if (home != null && !home.test(user.name)) {
+            remoteLoans.add(new String[]{user.name, title});
+            return;
+        }
+        List<String> recent;
+        synchronized (user) {
+            List<String> h = user.borrowHistory;
+            recent = new ArrayList<>(h.subList(Math.max(0, h.size() - CoBorrowIndex.HISTORY_WINDOW), h.size()));
+            user.addToHistory(title);
+        }
+        coBorrowIndex.record(recent, title);
+        user.historyStamp = historyVersion.incrementAndGet();
+    }
+
+    // ====== Shard histories (see ShardedLibrary) ======
+    /**
+     * Keep borrow histories only for the users isHome accepts. The others'
+     * replicas here drop theirs (a journal replay may have refilled them) and
+     * the co-borrow index is rebuilt from the remaining histories, so every
+     * user's loans pair up on exactly one shard. Call before serving requests.
+     */
+    void keepHistoriesOf(Predicate<String> isHome) {
+        checkpointLock.writeLock().lock();
+        try {
+            historyHome = isHome;
+            for (User u : usersByName.values()) {
+                if (!isHome.test(u.name)) u.borrowHistory.clear();
+            }
+            coBorrowIndex = buildCoBorrowIndex();
+            historyVersion.incrementAndGet();
+        } finally {
+            checkpointLock.writeLock().unlock();
         }
     }
 
-    // ====== Search (binary search on sorted array of titles) ======
+    /**
+     * Hand the queued loans of users living elsewhere to home, oldest first. A
+     * loan leaves the queue only once home has taken it, so a caller that finds
+     * the queue empty knows its own loans were recorded.
+     */
+    void forwardLoans(BiConsumer<String, String> home) {
+        if (remoteLoans.isEmpty()) return;
+        synchronized (remoteLoans) {
+            String[] loan;
+            while ((loan = remoteLoans.peek()) != null) {
+                home.accept(loan[0], loan[1]);
+                remoteLoans.poll();
+            }
+        }
+    }
+
+    /**
+     * Record a loan made on another shard in the history of a user living here.
+     * Not awaited: the loan itself is durable on its own shard, and a history
+     * entry lost to a crash in between only shifts recommendations.
+     */
+    void recordLoan(String userName, String title) {
+        checkpointLock.readLock().lock();
+        try {
+            User u = usersByName.get(userName);
+            if (u == null) return;
+            log(LibraryJournal.LOAN, userName, title);
+            recordBorrow(u, title);
+            version.incrementAndGet();
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+    }
+
+    // ====== Search (sorted title index, O(log n)) ======
     public Book searchByTitleBinary(String title) {
-        List<Book> list = new ArrayList<>(booksByIsbn.values());
-        list.sort(Comparator.comparing(b -> b.title.toLowerCase()));
-        int l = 0, r = list.size() - 1;
-        title = title.toLowerCase();
-        while (l <= r) {
-            int m = (l + r) >>> 1;
-            int cmp = title.compareTo(list.get(m).title.toLowerCase());
-            if (cmp == 0) return list.get(m);
-            if (cmp < 0) r = m - 1; else l = m + 1;
+        long t0 = System.nanoTime();
+        try {
+            return titleIndex.exact(title);
+        } finally {
+            SEARCH_TIME.recordSince(t0);
         }
-        return null;
+    }
+
+    public List<Book> searchByTitlePrefix(String prefix, int limit) {
+        return titleIndex.prefix(prefix, limit);
+    }
+
+    public List<Book> searchByTitleRange(String from, String to, int limit) {
+        return titleIndex.range(from, to, limit);
+    }
+
+    // ====== Full-text search (inverted index, BM25) ======
+    public List<SearchIndex.Hit> searchFullText(String query, int limit) {
+        return searchIndex.search(query, limit);
     }
 
     // ====== Display ======
@@ -103,10 +822,16 @@ public class Library implements Serializable {
 
     public void displayAvailableBooks() {
         System.out.println("=== Available Books ===");
-        booksByIsbn.values().stream()
-                .filter(Book::isAvailable)
-                .sorted(Comparator.comparing(b -> b.title.toLowerCase()))
-                .forEach(System.out::println);
+        List<Book> list = availableBooks();
+        list.sort(Comparator.comparing(b -> b.title.toLowerCase()));
+        for (Book b : list) System.out.println(b);
+    }
+
+    /** Books currently on the shelf, found from the availability bitset rather than a catalog scan */
+    public List<Book> availableBooks() {
+        List<Book> list = new ArrayList<>((int) Math.min(Integer.MAX_VALUE, store.availableCount()));
+        store.forEachAvailable(list::add);
+        return list;
     }
 
     public void displayWaitingList(String isbn) {
@@ -116,8 +841,11 @@ public class Library implements Serializable {
             return;
         }
         System.out.println("Waiting list for " + b.title + ":");
-        if (b.waitingQueue.isEmpty()) System.out.println("No one waiting");
-        else b.waitingQueue.forEach(System.out::println);
+        String heldFor = holdFor(isbn);
+        if (heldFor != null) System.out.println("On hold for " + heldFor);
+        List<String> waiting = b.waitingList();
+        if (waiting.isEmpty()) System.out.println("No one waiting");
+        else waiting.forEach(System.out::println);
     }
 
     // ====== Graph operations ======
@@ -125,65 +853,312 @@ public class Library implements Serializable {
         return graph;
     }
 
-    // ====== Category tree operations (basic) ======
+    /** Visiting order for pulling the given books, starting at startShelf (see RoutePlanner) */
+    public RoutePlanner.Plan planPickRun(String startShelf, Collection<String> isbns) {
+        return RoutePlanner.plan(graph, startShelf, isbns, booksByIsbn);
+    }
+
+    // ====== Category tree operations (see CategoryIndex) ======
     public CategoryNode getCategoryRoot() { return categoryRoot; }
 
-    // ====== Recommendations (DP: Levenshtein distance) ======
+    /** Subtree counts for a category path such as "Non-Fiction/Science" ("" is the root), or null */
+    public CategoryIndex.Category category(String path) {
+        return categories.category(path);
+    }
+
+    /** One page of the books filed anywhere under a category path, or null if it does not exist */
+    public List<Book> booksInCategory(String path, boolean availableOnly, int offset, int limit) {
+        return categories.books(path, availableOnly, offset, limit);
+    }
+
+    // ====== Recommendations (trigram index + Levenshtein distance, see EditDistance) ======
     /**
-     * Recommend up to k books similar to user's last borrowed book using edit distance (DP)
+     * Recommend up to k books similar to user's last borrowed book using edit distance (DP).
+     * The trigram index prunes candidates that cannot make the top k.
      */
     public List<Book> recommendByLastBorrow(String userName, int k) {
+        long t0 = System.nanoTime();
+        try {
+            User u = usersByName.get(userName);
+            if (u == null) return Collections.emptyList();
+            String last = u.lastBorrowed();
+            if (last == null) return Collections.emptyList();
+            return similarityIndex.nearest(last, k);
+        } finally {
+            RECOMMEND_TIME.recordSince(t0);
+        }
+    }
+
+    /**
+     * Collaborative filtering: up to k books most often borrowed together with the
+     * user's last borrowed title, excluding titles the user already has read.
+     */
+    public List<Book> recommendByCoBorrow(String userName, int k) {
         User u = usersByName.get(userName);
         if (u == null) return Collections.emptyList();
         String last = u.lastBorrowed();
         if (last == null) return Collections.emptyList();
-
-        // compute edit distance to all other book titles
-        PriorityQueue<Map.Entry<Book, Integer>> pq = new PriorityQueue<>(Map.Entry.comparingByValue());
-        for (Book b : booksByIsbn.values()) {
-            if (b.title.equalsIgnoreCase(last)) continue;
-            int dist = levenshteinDP(last.toLowerCase(), b.title.toLowerCase());
-            pq.add(new AbstractMap.SimpleEntry<>(b, dist));
+        List<Book> rec = new ArrayList<>(k);
+        for (String title : coBorrowIndex.topNeighbors(last, k, new HashSet<>(u.borrowHistory))) {
+            Book b = titleIndex.exact(title);
+            if (b != null) rec.add(b);
         }
-        List<Book> rec = new ArrayList<>();
-        while (!pq.isEmpty() && rec.size() < k) rec.add(pq.poll().getKey());
         return rec;
     }
 
-    // DP edit distance
-    private int levenshteinDP(String a, String b) {
-        int n = a.length(), m = b.length();
-        int[][] dp = new int[n+1][m+1];
-        for (int i=0;i<=n;i++) dp[i][0]=i;
-        for (int j=0;j<=m;j++) dp[0][j]=j;
-        for (int i=1;i<=n;i++){
-            for (int j=1;j<=m;j++){
-                if (a.charAt(i-1)==b.charAt(j-1)) dp[i][j]=dp[i-1][j-1];
-                else dp[i][j]=1+Math.min(Math.min(dp[i-1][j], dp[i][j-1]), dp[i-1][j-1]);
-            }
-        }
-        return dp[n][m];
+    /** Up to k books nearest to title by edit distance, with the distances (see SimilarityIndex) */
+    List<SimilarityIndex.Match> similarTitles(String title, int k) {
+        return similarityIndex.nearestMatches(title, k);
+    }
+
+    /** Titles borrowed together with title by users living here, and how often */
+    Map<String, Integer> coBorrowedWith(String title) {
+        return coBorrowIndex.neighborCounts(title);
     }
 
     // ====== Persistence ======
+    /**
+     * Checkpoint: write a snapshot covering every journaled mutation so far, then
+     * start a fresh journal segment and drop the old ones.
+     */
     public void saveState() throws IOException {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(SAVE_FILE))) {
-            oos.writeObject(this);
+        long t0 = System.nanoTime();
+        checkpointLock.writeLock().lock();
+        try {
+            if (journal != null) journalSeq = journal.lastSeq();
+            Path file = dataDir.resolve(SAVE_FILE);
+            Path tmp = file.resolveSibling(SAVE_FILE + ".tmp");
+            SnapshotCodec.write(this, journalSeq, tmp);
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ch.force(true);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (journal != null) journal.rollover();
+        } finally {
+            checkpointLock.writeLock().unlock();
+            SAVE_TIME.recordSince(t0);
         }
     }
 
+    /**
+     * Load the latest snapshot and replay the journal tail written after it.
+     * A legacy Java-serialized save is read if no binary snapshot exists yet;
+     * the next checkpoint converts it.
+     */
     public static Library loadState() {
-        File f = new File(SAVE_FILE);
-        if (!f.exists()) return null;
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(f))) {
-            return (Library) ois.readObject();
+        return loadState(DATA_DIR);
+    }
+
+    /** Load the library persisted in dir; null if there is nothing there */
+    static Library loadState(Path dir) {
+        long t0 = System.nanoTime();
+        try {
+            return readState(dir);
+        } finally {
+            LOAD_TIME.recordSince(t0);
+        }
+    }
+
+    private static Library readState(Path dir) {
+        Path snap = dir.resolve(SAVE_FILE), legacy = dir.resolve(LEGACY_SAVE_FILE);
+        Library lib = null;
+        try {
+            if (Files.exists(snap)) lib = SnapshotCodec.read(snap);
+            else if (Files.exists(legacy)) lib = SnapshotCodec.readLegacy(legacy);
         } catch (Exception e) {
             e.printStackTrace();
             return null;
         }
+        if (lib != null) lib.dataDir = dir;
+        try {
+            if (!LibraryJournal.exists(dir)) return lib;
+            if (lib == null) lib = new Library(dir);
+            lib.journalSeq = LibraryJournal.replay(dir, lib.journalSeq, lib::applyJournal);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return lib;
+    }
+
+    /** Assemble a library from decoded snapshot records and build its indexes */
+    static Library fromSnapshot(Book[] books, User[] users, LibraryGraph graph, CategoryNode root,
+                                Collection<Hold> holds, long journalSeq) {
+        Library lib = new Library();
+        for (Hold h : holds) lib.restoreHold(h);
+        Arrays.stream(books).parallel().forEach(b -> lib.booksByIsbn.put(b.isbn, b));
+        for (User u : users) lib.usersByName.put(u.name, u);
+        lib.graph = graph;
+        lib.categoryRoot = root;
+        lib.journalSeq = journalSeq;
+        lib.rebuildIndexes();
+        return lib;
+    }
+
+    long journalSeq() {
+        return journalSeq;
+    }
+
+    /**
+     * Start journaling mutations. Takes a checkpoint right away so the snapshot
+     * covers everything loaded or populated before the journal existed.
+     */
+    public void openJournal() throws IOException {
+        if (journal != null) return;
+        journal = new LibraryJournal(dataDir, journalSeq + 1);
+        saveState();
+    }
+
+    public void closeJournal() throws IOException {
+        if (journal == null) return;
+        journal.close();
+        journal = null;
+    }
+
+    public boolean journaling() {
+        return journal != null;
+    }
+
+    private long log(byte type, String... fields) {
+        if (journal == null) return 0;
+        try {
+            return journal.append(type, fields);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Journal append failed", e);
+        }
+    }
+
+    private void awaitDurable(long seq) {
+        if (seq == 0 || journal == null) return;
+        try {
+            journal.awaitDurable(seq);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Journal sync failed", e);
+        }
+    }
+
+    private void applyJournal(long seq, byte type, String[] f) {
+        switch (type) {
+            case LibraryJournal.ADD_BOOK: addBook(new Book(f[0], f[1], f[2], f[3], f[4])); break;
+            case LibraryJournal.ADD_USER: addUser(new User(f[0], f[1])); break;
+            case LibraryJournal.ISSUE:
+            case LibraryJournal.WAIT: borrowBook(f[0], f[1]); break;
+            // records from before holds carry no time: replay them as an immediate reissue
+            case LibraryJournal.RETURN:
+                if (f.length > 1) returnBook(f[0], Long.parseLong(f[1]), true);
+                else returnBook(f[0], 0, false);
+                break;
+            case LibraryJournal.HOLD_EXPIRED: expireHold(f[0], f[1], Long.parseLong(f[2])); break;
+            case LibraryJournal.LOAN: recordLoan(f[0], f[1]); break;
+            case LibraryJournal.ADD_BOOKS: {
+                List<Book> books = new ArrayList<>(f.length / 5);
+                for (int i = 0; i + 4 < f.length; i += 5) books.add(new Book(f[i], f[i + 1], f[i + 2], f[i + 3], f[i + 4]));
+                try {
+                    addBooks(books);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e); // not journaling while replaying: no checkpoint to fail
+                }
+                break;
+            }
+            case LibraryJournal.BORROW_BATCH: {
+                List<Map.Entry<String, String>> loans = new ArrayList<>(f.length / 2);
+                for (int i = 0; i + 1 < f.length; i += 2) loans.add(Map.entry(f[i], f[i + 1]));
+                borrowBooks(loans);
+                break;
+            }
+            case LibraryJournal.RETURN_BATCH:
+                returnBooks(Arrays.asList(f).subList(1, f.length), f[0].isEmpty() ? 0 : Long.parseLong(f[0]), !f[0].isEmpty());
+                break;
+            default: System.err.println("Skipping unknown journal record type " + type + " at " + seq);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        // older saves used plain HashMaps (and an unordered map for books)
+        booksByIsbn = new ConcurrentSkipListMap<>(booksByIsbn);
+        usersByName = new ConcurrentHashMap<>(usersByName);
+        bookLocks = newLocks();
+        version = new AtomicLong();
+        catalogVersion = new AtomicLong();
+        availabilityVersion = new AtomicLong();
+        historyVersion = new AtomicLong();
+        checkpointLock = new ReentrantReadWriteLock();
+        dataDir = DATA_DIR;
+        holds = new ConcurrentHashMap<>();
+        holdWheel = new TimingWheel<>(1000, System.currentTimeMillis());
+        remoteLoans = new ConcurrentLinkedQueue<>();
+        rebuildIndexes();
+    }
+
+    /** Rebuild all transient secondary indexes from the primary stores, one index per task */
+    private void rebuildIndexes() {
+        Collection<Book> books = booksByIsbn.values();
+        // first, since attaching canonicalizes the strings the other indexes read
+        CatalogStore catalog = new CatalogStore();
+        for (Book b : books) catalog.add(b);
+        store = catalog;
+        CompletableFuture.allOf(
+            CompletableFuture.runAsync(() -> categories = CategoryIndex.build(categoryRoot, catalog)),
+            CompletableFuture.runAsync(() -> {
+                TitleIndex idx = new TitleIndex();
+                for (Book b : books) idx.add(b);
+                titleIndex = idx;
+            }),
+            CompletableFuture.runAsync(() -> searchIndex = SearchIndex.build(books)),
+            CompletableFuture.runAsync(() -> {
+                SimilarityIndex idx = new SimilarityIndex();
+                for (Book b : books) idx.add(b);
+                similarityIndex = idx;
+            }),
+            CompletableFuture.runAsync(() -> coBorrowIndex = buildCoBorrowIndex()),
+            CompletableFuture.runAsync(() -> {
+                LibraryStats st = new LibraryStats(() -> store.availableCount());
+                for (Book b : books) st.bookAdded(b);
+                for (int i = usersByName.size(); i > 0; i--) st.userAdded();
+                stats = st;
+            })
+        ).join();
+    }
+
+    /** Co-borrow index replayed from the users' histories, each in loan order */
+    private CoBorrowIndex buildCoBorrowIndex() {
+        CoBorrowIndex idx = new CoBorrowIndex();
+        for (User u : usersByName.values()) {
+            List<String> history = u.borrowHistory;
+            for (int i = 0; i < history.size(); i++) {
+                idx.record(history.subList(Math.max(0, i - CoBorrowIndex.HISTORY_WINDOW), i), history.get(i));
+            }
+        }
+        return idx;
     }
 
     // ====== Utilities ======
     public Set<String> listAllUsers() { return usersByName.keySet(); }
     public Collection<Book> allBooks() { return booksByIsbn.values(); }
+    Collection<User> allUsers() { return usersByName.values(); }
+    public LibraryStats stats() { return stats; }
+
+    /** Counter that changes after every mutation of books, users or loans (not the shelf graph) */
+    public long version() { return version.get(); }
+
+    /** Counter that changes after books are added or replaced */
+    public long catalogVersion() { return catalogVersion.get(); }
+
+    /** Counter that changes after a book's status changes: on or off the shelf, or held (waiting lists alone do not count) */
+    public long availabilityVersion() { return availabilityVersion.get(); }
+
+    /** Counter that changes after any user's borrow history changes */
+    public long historyVersion() { return historyVersion.get(); }
+
+    /** Stamp that changes after this user's borrow history changes (0 for an unknown user) */
+    public long historyVersion(String userName) {
+        User u = usersByName.get(userName);
+        return u == null ? 0 : u.historyStamp;
+    }
+
+    /** Live view of the books with ISBN strictly greater than after (all books if null), in ISBN order */
+    public Collection<Book> booksAfter(String after) {
+        NavigableMap<String, Book> sorted = (NavigableMap<String, Book>) booksByIsbn;
+        return after == null ? sorted.values() : sorted.tailMap(after, false).values();
+    }
 }
@@ -0,0 +1,675 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Micro-benchmarks for the Library hot paths on synthetic catalogs.
+ * Usage: java -Xmx8g LibraryBenchmark [scenario] [books[,books...]]
+ * Scenarios: search, recommend, distance, routing, contention, startup, persistence, batch, import, sharding
+ * Sizes accept k/m suffixes, e.g. "all 1k,10k,100k,1m,10m" runs every scenario
+ * at 10^3..10^7 books; 10^7 needs several GB of heap. Legacy baselines are
+ * skipped above LEGACY_MAX_BOOKS, where a single call takes seconds.
+ */
+public class LibraryBenchmark {
+    private static final int LEGACY_MAX_BOOKS = 1_000_000;
+    private static final String[] WORDS = {
+        "Data", "Structures", "Algorithms", "Java", "Systems", "Networks", "Design", "Patterns",
+        "Compiler", "Database", "Machine", "Learning", "Discrete", "Mathematics", "Operating",
+        "Concepts", "Introduction", "Advanced", "Modern", "Theory", "Practice", "Distributed"
+    };
+    private static final String[] SYLLABLES = {
+        "ka", "ri", "mo", "lan", "te", "vis", "ro", "na", "pur", "shi", "dev", "ar", "um", "pra", "sen", "gal"
+    };
+
+    public static void main(String[] args) throws IOException {
+        String scenario = args.length > 0 ? args[0] : "all";
+        int[] sizes = parseSizes(args.length > 1 ? args[1] : "100k");
+        // saveState/loadState work in the data directory: keep them out of the working copy
+        if (System.getProperty("library.data.dir") == null) {
+            System.setProperty("library.data.dir", Files.createTempDirectory("library-bench").toString());
+        }
+        if (scenario.equals("all") || scenario.equals("distance")) benchDistance(syntheticLibrary(10_000, 42));
+        if (scenario.equals("all") || scenario.equals("routing")) benchRouting();
+        for (int n : sizes) {
+            long t0 = System.nanoTime();
+            Library lib = syntheticLibrary(n, 42);
+            System.out.printf("%nSynthetic catalog: %d books (built in %.1f s)%n", n, (System.nanoTime() - t0) / 1e9);
+            if (scenario.equals("all") || scenario.equals("search")) benchSearch(lib, n);
+            if (scenario.equals("all") || scenario.equals("recommend")) benchRecommend(lib, n);
+            if (scenario.equals("all") || scenario.equals("startup")) benchStartup(lib);
+            if (scenario.equals("all") || scenario.equals("contention")) {
+                for (int threads : new int[]{1, 2, 4, 8, 16}) benchContention(lib, threads, 2_000);
+            }
+            if (scenario.equals("all") || scenario.equals("persistence")) benchPersistence(lib);
+            if (scenario.equals("all") || scenario.equals("batch")) benchBatch(lib);
+            if (scenario.equals("all") || scenario.equals("import")) benchImport(n);
+            if (scenario.equals("all") || scenario.equals("sharding")) {
+                lib = null; // each shard layout builds its own copy of the catalog
+                benchSharding(n);
+            }
+        }
+    }
+
+    static int[] parseSizes(String arg) {
+        String[] parts = arg.split(",");
+        int[] sizes = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            String p = parts[i].trim().toLowerCase(Locale.ROOT);
+            int mult = p.endsWith("k") ? 1_000 : p.endsWith("m") ? 1_000_000 : 1;
+            if (mult > 1) p = p.substring(0, p.length() - 1);
+            sizes[i] = Integer.parseInt(p) * mult;
+        }
+        return sizes;
+    }
+
+    // ====== Scenarios ======
+    private static void benchSearch(Library lib, int n) {
+        String[] queries = sampleTitles(lib, 1000);
+        // legacy path: copy + sort on every call
+        int legacyRounds = Math.max(1, Math.min(50, 5_000_000 / Math.max(1, n)));
+        if (n <= LEGACY_MAX_BOOKS) {
+            report("search (legacy sort per call)", legacyRounds, i -> legacySearch(lib, queries[i % queries.length]));
+        }
+        report("search (title index)", 1_000_000, i -> lib.searchByTitleBinary(queries[i % queries.length]));
+        report("prefix search (title index, 10)", 200_000, i -> lib.searchByTitlePrefix(queries[i % queries.length].substring(0, 4), 10));
+    }
+
+    private static Book legacySearch(Library lib, String title) {
+        List<Book> list = new ArrayList<>(lib.allBooks());
+        list.sort(Comparator.comparing(b -> b.title.toLowerCase()));
+        int l = 0, r = list.size() - 1;
+        title = title.toLowerCase();
+        while (l <= r) {
+            int m = (l + r) >>> 1;
+            int cmp = title.compareTo(list.get(m).title.toLowerCase());
+            if (cmp == 0) return list.get(m);
+            if (cmp < 0) r = m - 1; else l = m + 1;
+        }
+        return null;
+    }
+
+    private static void benchRecommend(Library lib, int n) {
+        String[] titles = sampleTitles(lib, 64);
+        String[] users = new String[titles.length];
+        for (int i = 0; i < titles.length; i++) {
+            users[i] = "Bench User " + i;
+            lib.addUser(new User(users[i], "0"));
+            lib.getUserByName(users[i]).addToHistory(titles[i]);
+        }
+        int legacyRounds = Math.max(1, Math.min(200, 2_000_000 / Math.max(1, n)));
+        if (n <= LEGACY_MAX_BOOKS) {
+            report("recommend k=5 (legacy full scan)", legacyRounds, i -> legacyRecommend(lib, titles[i % titles.length], 5));
+        }
+        String mode = n >= SimilarityIndex.PARALLEL_THRESHOLD ? "parallel" : "sequential";
+        report("recommend k=5 (trigram index, " + mode + ")", Math.max(10, legacyRounds * 4), i -> lib.recommendByLastBorrow(users[i % users.length], 5));
+        checkSimilarityChurn();
+    }
+
+    /**
+     * Re-adding books under new titles must leave the similarity index as good
+     * as a fresh one over the live titles: the same nearest distances (the
+     * fresh index adds in the same order, so equal bounds break ties alike)
+     * and at most twice its postings. Failure exits with code 1.
+     */
+    static void checkSimilarityChurn() {
+        List<Book> pool = syntheticBooks(2_000, 11);
+        SimilarityIndex idx = new SimilarityIndex();
+        Map<String, Book> live = new LinkedHashMap<>(); // isbn -> current copy, in docId order
+        for (Book b : syntheticBooks(2_000, 7)) {
+            idx.add(b);
+            live.put(b.isbn, b);
+        }
+        List<String> isbns = new ArrayList<>(live.keySet());
+        Random rnd = new Random(3);
+        for (int i = 0; i < 100_000; i++) {
+            Book old = live.remove(isbns.get(rnd.nextInt(isbns.size())));
+            Book src = pool.get(rnd.nextInt(pool.size()));
+            Book repl = new Book(old.isbn, src.title, src.author, src.category, src.shelf);
+            idx.remove(old);
+            idx.add(repl);
+            live.put(repl.isbn, repl);
+        }
+        SimilarityIndex fresh = new SimilarityIndex();
+        for (Book b : live.values()) fresh.add(b);
+        int mismatches = 0;
+        for (int q = 0; q < 200; q++) {
+            String title = pool.get(rnd.nextInt(pool.size())).title;
+            List<Integer> expected = new ArrayList<>(), actual = new ArrayList<>();
+            for (SimilarityIndex.Match m : fresh.nearestMatches(title, 5)) expected.add(m.distance);
+            for (SimilarityIndex.Match m : idx.nearestMatches(title, 5)) actual.add(m.distance);
+            if (!expected.equals(actual)) mismatches++;
+        }
+        long postings = idx.postingEntries(), freshPostings = fresh.postingEntries();
+        boolean ok = mismatches == 0 && postings <= 2 * freshPostings;
+        System.out.printf("%-45s %12d postings  (fresh %d) mismatches=%d%s%n", "similarity index after 100k re-adds",
+                postings, freshPostings, mismatches, ok ? "" : "  UNEXPECTED");
+        if (!ok) System.exit(1);
+    }
+
+    private static void benchDistance(Library lib) {
+        String[] t = sampleTitles(lib, 1024);
+        String longA = String.join(" ", Arrays.copyOf(t, 8)).toLowerCase();
+        String longB = String.join(" ", Arrays.copyOfRange(t, 1, 9)).toLowerCase();
+        report("distance (legacy n*m matrix)", 2_000_000, i -> legacyLevenshtein(t[i & 1023], t[(i + 1) & 1023]));
+        report("distance (Myers bit-parallel)", 2_000_000, i -> EditDistance.distance(t[i & 1023], t[(i + 1) & 1023]));
+        report("distance (Myers, cutoff 5)", 2_000_000, i -> EditDistance.bounded(t[i & 1023], t[(i + 1) & 1023], 5));
+        report("distance >64 chars (legacy)", 20_000, i -> legacyLevenshtein(longA, longB));
+        report("distance >64 chars (banded two-row)", 20_000, i -> EditDistance.distance(longA, longB));
+        report("distance >64 chars (banded, cutoff 10)", 200_000, i -> EditDistance.bounded(longA, longB, 10));
+    }
+
+    /** Shelf-to-shelf queries on square floor grids: per-call Dijkstra vs the cached router */
+    private static void benchRouting() {
+        for (int side : new int[]{10, 40}) {
+            LibraryGraph g = syntheticFloor(side, 7);
+            String[] shelves = g.shelves().toArray(new String[0]);
+            int count = shelves.length;
+            Map<String, Map<String, Integer>> adj = new HashMap<>();
+            for (String s : shelves) adj.put(s, g.neighbors(s));
+            report("route " + count + " shelves (legacy Dijkstra)", 20_000,
+                    i -> legacyShortestPath(adj, shelves[i % count], shelves[(i * 31 + 7) % count]));
+            report("route " + count + " shelves (cached router)", 1_000_000,
+                    i -> g.shortestPath(shelves[i % count], shelves[(i * 31 + 7) % count]));
+        }
+    }
+
+    /** Cold load of a saved catalog: legacy Java serialization vs the mapped binary snapshot */
+    private static void benchStartup(Library lib) {
+        try {
+            Path dir = Files.createTempDirectory("library-bench");
+            Path ser = dir.resolve("library_data.ser"), snap = dir.resolve("library_data.snap");
+            try (ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(ser)))) {
+                oos.writeObject(lib);
+            }
+            long t0 = System.nanoTime();
+            SnapshotCodec.write(lib, 0, snap);
+            long writeNs = System.nanoTime() - t0;
+            System.out.printf("%-45s %12.1f ms  (%d KB legacy, %d KB binary)%n", "snapshot write (binary)", writeNs / 1e6,
+                    Files.size(ser) / 1024, Files.size(snap) / 1024);
+            for (int round = 0; round < 3; round++) {
+                t0 = System.nanoTime();
+                sink = SnapshotCodec.readLegacy(ser);
+                long legacyNs = System.nanoTime() - t0;
+                t0 = System.nanoTime();
+                sink = SnapshotCodec.read(snap);
+                long binaryNs = System.nanoTime() - t0;
+                System.out.printf("%-45s %12.1f ms  vs binary %.1f ms%n", "load incl. indexes (legacy .ser), round " + round,
+                        legacyNs / 1e6, binaryNs / 1e6);
+            }
+            Files.delete(ser);
+            Files.delete(snap);
+            Files.delete(dir);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Checkpoint and recovery through the real saveState/loadState in the data
+     * directory, then borrow/return throughput with the write-ahead journal on,
+     * where every mutation waits for its group-committed fsync.
+     */
+    private static void benchPersistence(Library lib) throws IOException {
+        Path dir = Paths.get(System.getProperty("library.data.dir"));
+        lib.openJournal();
+        try {
+            for (int round = 0; round < 3; round++) {
+                long t0 = System.nanoTime();
+                lib.saveState();
+                long saveNs = System.nanoTime() - t0;
+                t0 = System.nanoTime();
+                sink = Library.loadState();
+                long loadNs = System.nanoTime() - t0;
+                sink = null;
+                System.out.printf("%-45s %12.1f ms  loadState %.1f ms%n", "saveState, round " + round, saveNs / 1e6, loadNs / 1e6);
+            }
+            for (int threads : new int[]{1, 8}) benchContention(lib, threads, 2_000);
+        } finally {
+            lib.closeJournal();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "library_*")) {
+                for (Path f : files) Files.delete(f);
+            }
+        }
+    }
+
+    /**
+     * Self-checkout style loans with the journal on: items borrowed and returned
+     * one call at a time (a journal record and sync each) against borrowBooks /
+     * returnBooks batches (one lock acquisition, record and sync per batch).
+     */
+    private static void benchBatch(Library lib) throws IOException {
+        Path dir = Paths.get(System.getProperty("library.data.dir"));
+        String user = "Kiosk User";
+        if (lib.getUserByName(user) == null) lib.addUser(new User(user, "0"));
+        List<String> isbns = new ArrayList<>();
+        for (Book b : lib.booksAfter(null)) {
+            if (b.isAvailable()) isbns.add(b.isbn);
+            if (isbns.size() == 2_000) break;
+        }
+        lib.openJournal();
+        try {
+            for (int batch : new int[]{1, 10, 100}) {
+                long t0 = System.nanoTime();
+                for (int i = 0; i < isbns.size(); i += batch) {
+                    List<String> part = isbns.subList(i, Math.min(i + batch, isbns.size()));
+                    if (batch == 1) {
+                        lib.borrowBook(user, part.get(0));
+                        lib.returnBook(part.get(0));
+                    } else {
+                        List<Map.Entry<String, String>> loans = new ArrayList<>(part.size());
+                        for (String isbn : part) loans.add(Map.entry(user, isbn));
+                        lib.borrowBooks(loans);
+                        lib.returnBooks(part);
+                    }
+                }
+                double secs = (System.nanoTime() - t0) / 1e9;
+                System.out.printf("%-45s %12.0f items/s%n",
+                        "borrow+return, " + (batch == 1 ? "one call per item" : "batches of " + batch), isbns.size() / secs);
+            }
+        } finally {
+            lib.closeJournal();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "library_*")) {
+                for (Path f : files) Files.delete(f);
+            }
+        }
+    }
+
+    /**
+     * BulkImporter on a JSONL dump of n books into an empty library, with a few
+     * bad lines mixed in: one nested thousands of levels deep, one that is not
+     * JSON and one without a title. Each must be rejected on its own while
+     * every other record imports; anything else fails the run with exit code 1.
+     */
+    private static void benchImport(int n) throws IOException {
+        Path file = Files.createTempFile(Paths.get(System.getProperty("library.data.dir")), "import", ".jsonl");
+        try {
+            try (BufferedWriter w = Files.newBufferedWriter(file)) {
+                int i = 0;
+                for (Book b : syntheticBooks(n, 43)) {
+                    w.write(String.format("{\"isbn\":\"%s\",\"title\":\"%s\",\"author\":\"%s\",\"category\":\"%s\",\"shelf\":\"%s\"}%n",
+                            b.isbn, b.title, b.author, b.category, b.shelf));
+                    if (++i == n / 2) {
+                        w.write("{\"isbn\":" + "[".repeat(50_000) + "\n");
+                        w.write("not json\n");
+                        w.write("{\"isbn\":\"NO-TITLE\"}\n");
+                    }
+                }
+            }
+            BulkImporter.Result r = BulkImporter.importFile(new Library(), file, BulkImporter.Format.JSONL);
+            boolean ok = r.imported == n && r.invalid == 3;
+            System.out.printf("%-45s %12d records/s  imported=%d rejected=%d%s%n", "bulk import, JSONL",
+                    r.recordsPerSecond(), r.imported, r.invalid, ok ? "" : "  UNEXPECTED");
+            if (!ok) System.exit(1);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * The catalog partitioned over 1..8 in-process shards: batched build time
+     * (shards index in parallel), balance of the consistent-hash ring, routed
+     * borrow/return throughput and scatter-gather search latency. Also the share
+     * of ISBNs that change shard when one shard is added.
+     */
+    private static void benchSharding(int n) throws IOException {
+        int[] counts = {1, 2, 4, 8};
+        for (int shards : counts) {
+            List<Book> books = syntheticBooks(n, 42);
+            long t0 = System.nanoTime();
+            ShardedLibrary lib = ShardedLibrary.inMemory(shards);
+            lib.addBooks(books);
+            double buildMs = (System.nanoTime() - t0) / 1e6;
+            long[] perShard = lib.stats().booksPerShard();
+            long max = Arrays.stream(perShard).max().getAsLong();
+            System.out.printf("%-45s %12.1f ms  max/mean shard %.3f%n", shards + " shard(s): build", buildMs,
+                    max * shards / (double) n);
+            if (shards > 1) checkShardedRecommendations(shards);
+
+            String[] isbns = new String[Math.min(10_000, n)];
+            for (int i = 0; i < isbns.length; i++) isbns[i] = books.get(i * (n / isbns.length)).isbn;
+            String[] titles = new String[isbns.length];
+            for (int i = 0; i < titles.length; i++) titles[i] = lib.getBookByIsbn(isbns[i]).title;
+            report(shards + " shard(s): getBookByIsbn (routed)", 1_000_000, i -> lib.getBookByIsbn(isbns[i % isbns.length]));
+            report(shards + " shard(s): searchFullText (scatter-gather)", 2_000,
+                    i -> lib.searchFullText(titles[i % titles.length], 10));
+
+            int threads = 8;
+            for (int t = 0; t < threads; t++) lib.addUser(new User("Shard User " + t, "0"));
+            AtomicLong ops = new AtomicLong();
+            long deadline = System.nanoTime() + 2_000_000_000L;
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                String me = "Shard User " + t;
+                workers[t] = new Thread(() -> {
+                    ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                    while (System.nanoTime() < deadline) {
+                        String isbn = isbns[rnd.nextInt(isbns.length)];
+                        if (lib.borrowBook(me, isbn).startsWith("SUCCESS")) lib.returnBook(isbn);
+                        ops.incrementAndGet();
+                    }
+                });
+                workers[t].start();
+            }
+            for (Thread w : workers) {
+                try {
+                    w.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            System.out.printf("%-45s %12.0f ops/s%n", shards + " shard(s): borrow+return, " + threads + " threads", ops.get() / 2.0);
+        }
+
+        for (int shards : counts) {
+            List<String> from = new ArrayList<>(), to = new ArrayList<>();
+            for (int i = 0; i <= shards; i++) {
+                if (i < shards) from.add("shard-" + i);
+                to.add("shard-" + i);
+            }
+            ConsistentHashRing<String> before = new ConsistentHashRing<>(from, from, ConsistentHashRing.DEFAULT_POINTS);
+            ConsistentHashRing<String> after = new ConsistentHashRing<>(to, to, ConsistentHashRing.DEFAULT_POINTS);
+            int moved = 0, keys = Math.min(n, 1_000_000);
+            for (int i = 0; i < keys; i++) {
+                String isbn = String.format("SYN%08d", i);
+                if (!before.node(isbn).equals(after.node(isbn))) moved++;
+            }
+            System.out.printf("%-45s %11.1f %%  (ideal %.1f %%)%n", shards + " -> " + (shards + 1) + " shards: ISBNs moved",
+                    100.0 * moved / keys, 100.0 / (shards + 1));
+        }
+    }
+
+    /**
+     * Sharded recommendations must equal a single Library's after the same loans:
+     * the same histories, nearest-title distances and co-borrow counts (equal
+     * scores may list different books). The catalog is small enough that the
+     * similarity candidate budget never cuts the search short. Any mismatch
+     * fails the run with exit code 1.
+     */
+    static void checkShardedRecommendations(int shards) throws IOException {
+        // every Book carries its own loan state: each library gets its own copies
+        Library single = new Library();
+        single.addBooks(syntheticBooks(500, 7));
+        ShardedLibrary sharded = ShardedLibrary.inMemory(shards);
+        sharded.addBooks(syntheticBooks(500, 7));
+        List<String> isbns = new ArrayList<>();
+        for (Book b : single.allBooks()) isbns.add(b.isbn);
+        int users = 40, mismatches = 0;
+        for (int u = 0; u < users; u++) {
+            single.addUser(new User("Rec User " + u, "0"));
+            sharded.addUser(new User("Rec User " + u, "0"));
+        }
+        Random rnd = new Random(1);
+        for (int i = 0; i < 20_000; i++) {
+            String isbn = isbns.get(rnd.nextInt(300));
+            String user = "Rec User " + rnd.nextInt(users);
+            boolean ret = rnd.nextInt(3) == 0;
+            String a = ret ? single.returnBook(isbn) : single.borrowBook(user, isbn);
+            String b = ret ? sharded.returnBook(isbn) : sharded.borrowBook(user, isbn);
+            if (!a.equals(b)) mismatches++;
+        }
+        for (int u = 0; u < users; u++) {
+            String name = "Rec User " + u;
+            String last = single.getUserByName(name).lastBorrowed();
+            if (!single.getUserByName(name).borrowHistory.equals(sharded.getUserByName(name).borrowHistory)) mismatches++;
+            if (last == null) continue;
+            if (!distances(last, single.recommendByLastBorrow(name, 5)).equals(distances(last, sharded.recommendByLastBorrow(name, 5)))) {
+                mismatches++;
+            }
+            Map<String, Integer> counts = single.coBorrowedWith(last);
+            List<Integer> expected = new ArrayList<>(), actual = new ArrayList<>();
+            for (Book b : single.recommendByCoBorrow(name, 5)) expected.add(counts.get(b.title));
+            for (Book b : sharded.recommendByCoBorrow(name, 5)) actual.add(counts.get(b.title));
+            if (!expected.equals(actual)) mismatches++;
+        }
+        System.out.printf("%-45s %12d users  mismatches=%d%n", shards + " shard(s): recommendations vs 1 library", users, mismatches);
+        if (mismatches > 0) System.exit(1);
+    }
+
+    private static List<Integer> distances(String title, List<Book> books) {
+        List<Integer> out = new ArrayList<>();
+        for (Book b : books) out.add(EditDistance.distance(title.toLowerCase(), b.title.toLowerCase()));
+        return out;
+    }
+
+    /**
+     * Multi-threaded borrow/return stress. Ownership is tracked outside the
+     * Library from the returned messages: a book must never be issued while
+     * someone holds it, and only its holder returns it. A book returned to a
+     * waiting list is held for the next user, who collects it with a borrow.
+     * Any violation fails the run with exit code 1.
+     */
+    static void benchContention(Library lib, int threads, int seconds1000) {
+        String[] isbns = new String[Math.min(2_000, lib.allBooks().size())];
+        int idx = 0;
+        for (Book b : lib.allBooks()) {
+            if (idx == isbns.length) break;
+            isbns[idx++] = b.isbn;
+        }
+        String[] users = new String[threads];
+        for (int t = 0; t < threads; t++) {
+            users[t] = "Stress User " + t;
+            if (lib.getUserByName(users[t]) == null) lib.addUser(new User(users[t], "0"));
+        }
+
+        ConcurrentHashMap<String, String> holder = new ConcurrentHashMap<>();
+        ConcurrentHashMap<String, String> pickups = new ConcurrentHashMap<>(); // held for, not yet collected
+        Map<String, String> ownerByName = new HashMap<>();
+        for (String u : users) ownerByName.put(u, u);
+        AtomicInteger violations = new AtomicInteger();
+        AtomicLong ops = new AtomicLong();
+        long deadline = System.nanoTime() + seconds1000 * 1_000_000L;
+
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            String me = users[t];
+            workers[t] = new Thread(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                List<String> mine = new ArrayList<>();
+                for (long iter = 0; System.nanoTime() < deadline; iter++) {
+                    // now and then pick up books handed to us from a waiting list
+                    if ((iter & 63) == 0) {
+                        for (Map.Entry<String, String> e : holder.entrySet()) {
+                            if (e.getValue().equals(me) && !mine.contains(e.getKey())) mine.add(e.getKey());
+                        }
+                        for (Map.Entry<String, String> e : pickups.entrySet()) {
+                            String isbn = e.getKey();
+                            // a random borrow may already have collected it
+                            if (!e.getValue().equals(me) || !pickups.remove(isbn, me) || !me.equals(lib.holdFor(isbn))) continue;
+                            if (!lib.borrowBook(me, isbn).startsWith("SUCCESS") || holder.putIfAbsent(isbn, me) != null) {
+                                violations.incrementAndGet();
+                            } else {
+                                mine.add(isbn);
+                            }
+                        }
+                    }
+                    if (!mine.isEmpty() && rnd.nextBoolean()) {
+                        String isbn = mine.remove(mine.size() - 1);
+                        if (!holder.remove(isbn, me)) violations.incrementAndGet();
+                        String res = lib.returnBook(isbn);
+                        int at = res.indexOf(" issued to ");
+                        if (at >= 0) {
+                            String next = res.substring(at + " issued to ".length());
+                            if (!ownerByName.containsKey(next) || holder.putIfAbsent(isbn, next) != null) violations.incrementAndGet();
+                        }
+                        at = res.indexOf(" held for ");
+                        if (at >= 0) {
+                            String next = res.substring(at + " held for ".length());
+                            if (!ownerByName.containsKey(next)) violations.incrementAndGet();
+                            else pickups.put(isbn, next);
+                        }
+                    } else {
+                        String isbn = isbns[rnd.nextInt(isbns.length)];
+                        String res = lib.borrowBook(me, isbn);
+                        if (res.startsWith("SUCCESS")) {
+                            if (holder.putIfAbsent(isbn, me) != null) violations.incrementAndGet();
+                            else mine.add(isbn);
+                        }
+                    }
+                    ops.incrementAndGet();
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread w : workers) {
+            try {
+                w.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (String isbn : isbns) {
+            Book b = lib.getBookByIsbn(isbn);
+            boolean held = lib.holdFor(isbn) != null;
+            if (b.isAvailable() == (holder.containsKey(isbn) || held) || (held && holder.containsKey(isbn))) {
+                violations.incrementAndGet();
+            }
+            // drain holders, holds and waiting lists so the next run starts clean (returning a held book releases it)
+            while (!b.isAvailable()) lib.returnBook(isbn);
+        }
+        System.out.printf("%-45s %12.0f ops/s  violations=%d%n",
+                "borrow/return, " + threads + " threads" + (lib.journaling() ? ", journaled" : ""),
+                ops.get() * 1000.0 / seconds1000, violations.get());
+        if (violations.get() > 0) System.exit(1);
+    }
+
+    private static List<Book> legacyRecommend(Library lib, String last, int k) {
+        PriorityQueue<Map.Entry<Book, Integer>> pq = new PriorityQueue<>(Map.Entry.comparingByValue());
+        for (Book b : lib.allBooks()) {
+            if (b.title.equalsIgnoreCase(last)) continue;
+            int dist = legacyLevenshtein(last.toLowerCase(), b.title.toLowerCase());
+            pq.add(new AbstractMap.SimpleEntry<>(b, dist));
+        }
+        List<Book> rec = new ArrayList<>();
+        while (!pq.isEmpty() && rec.size() < k) rec.add(pq.poll().getKey());
+        return rec;
+    }
+
+    private static Integer legacyShortestPath(Map<String, Map<String, Integer>> adj, String start, String end) {
+        Map<String, Integer> dist = new HashMap<>();
+        for (String node : adj.keySet()) dist.put(node, Integer.MAX_VALUE);
+        dist.put(start, 0);
+        PriorityQueue<Map.Entry<String, Integer>> pq = new PriorityQueue<>(Map.Entry.comparingByValue());
+        pq.add(new AbstractMap.SimpleEntry<>(start, 0));
+        Set<String> visited = new HashSet<>();
+        while (!pq.isEmpty()) {
+            String cur = pq.poll().getKey();
+            if (!visited.add(cur)) continue;
+            if (cur.equals(end)) break;
+            for (Map.Entry<String, Integer> nb : adj.get(cur).entrySet()) {
+                int nd = dist.get(cur) + nb.getValue();
+                if (nd < dist.get(nb.getKey())) {
+                    dist.put(nb.getKey(), nd);
+                    pq.add(new AbstractMap.SimpleEntry<>(nb.getKey(), nd));
+                }
+            }
+        }
+        return dist.get(end);
+    }
+
+    static int legacyLevenshtein(String a, String b) {
+        int n = a.length(), m = b.length();
+        int[][] dp = new int[n+1][m+1];
+        for (int i=0;i<=n;i++) dp[i][0]=i;
+        for (int j=0;j<=m;j++) dp[0][j]=j;
+        for (int i=1;i<=n;i++){
+            for (int j=1;j<=m;j++){
+                if (a.charAt(i-1)==b.charAt(j-1)) dp[i][j]=dp[i-1][j-1];
+                else dp[i][j]=1+Math.min(Math.min(dp[i-1][j], dp[i][j-1]), dp[i-1][j-1]);
+            }
+        }
+        return dp[n][m];
+    }
+
+    // ====== Harness ======
+    interface Op { Object run(int i); }
+
+    private static volatile Object sink;
+
+    static void report(String name, int ops, Op op) {
+        int warmup = Math.max(1, ops / 10);
+        for (int i = 0; i < warmup; i++) sink = op.run(i);
+        long t0 = System.nanoTime();
+        for (int i = 0; i < ops; i++) sink = op.run(i);
+        long elapsed = System.nanoTime() - t0;
+        System.out.printf("%-45s %12.1f ns/op  (%d ops)%n", name, (double) elapsed / ops, ops);
+    }
+
+    // ====== Synthetic data ======
+    static Library syntheticLibrary(int n, long seed) {
+        Library lib = new Library();
+        try {
+            lib.addBooks(syntheticBooks(n, seed)); // one batched index build
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return lib;
+    }
+
+    static List<Book> syntheticBooks(int n, long seed) {
+        Random rnd = new Random(seed);
+        List<String> titles = new ArrayList<>(n);
+        List<Book> books = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            Book b = syntheticBook(i, rnd, titles);
+            titles.add(b.title);
+            books.add(b);
+        }
+        return books;
+    }
+
+    /** About a third of the books are editions/volumes of an earlier title, as in real catalogs */
+    static Book syntheticBook(int i, Random rnd, List<String> earlier) {
+        String title;
+        if (!earlier.isEmpty() && rnd.nextInt(3) == 0) {
+            String base = earlier.get(rnd.nextInt(earlier.size()));
+            title = rnd.nextBoolean() ? base + " Vol " + (2 + rnd.nextInt(5)) : base + " " + (2 + rnd.nextInt(8)) + "e";
+        } else {
+            int words = 2 + rnd.nextInt(4);
+            StringBuilder sb = new StringBuilder();
+            for (int w = 0; w < words; w++) {
+                if (w > 0) sb.append(' ');
+                sb.append(syntheticWord(rnd));
+            }
+            title = sb.toString();
+        }
+        return new Book(String.format("SYN%08d", i), title,
+                "Author " + rnd.nextInt(5000), "Cat-" + rnd.nextInt(20), "Shelf-" + (1 + rnd.nextInt(5)));
+    }
+
+    // mix of real subject words and pronounceable pseudo-words for a realistic vocabulary size
+    private static String syntheticWord(Random rnd) {
+        if (rnd.nextInt(4) == 0) return WORDS[rnd.nextInt(WORDS.length)];
+        StringBuilder w = new StringBuilder();
+        int syl = 2 + rnd.nextInt(3);
+        for (int i = 0; i < syl; i++) w.append(SYLLABLES[rnd.nextInt(SYLLABLES.length)]);
+        w.setCharAt(0, Character.toUpperCase(w.charAt(0)));
+        return w.toString();
+    }
+
+    /** side x side grid of shelves joined by aisles of random length */
+    static LibraryGraph syntheticFloor(int side, long seed) {
+        LibraryGraph g = new LibraryGraph();
+        Random rnd = new Random(seed);
+        for (int r = 0; r < side; r++) {
+            for (int c = 0; c < side; c++) {
+                String here = "Shelf-" + (r * side + c + 1);
+                if (c + 1 < side) g.addPath(here, "Shelf-" + (r * side + c + 2), 1 + rnd.nextInt(9));
+                if (r + 1 < side) g.addPath(here, "Shelf-" + ((r + 1) * side + c + 1), 1 + rnd.nextInt(9));
+            }
+        }
+        return g;
+    }
+
+    static String[] sampleTitles(Library lib, int count) {
+        List<String> titles = new ArrayList<>();
+        for (Book b : lib.allBooks()) {
+            titles.add(b.title);
+            if (titles.size() >= count) break;
+        }
+        return titles.toArray(new String[0]);
+    }
+}
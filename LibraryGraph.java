@@ -4,59 +4,70 @@ import java.util.*;
 public class LibraryGraph implements Serializable {
     private static final long serialVersionUID = 1L;
 
+    private static final LatencyHistogram PATH_TIME = Metrics.OPERATIONS.get("shortestPath");
+
     private Map<String, Map<String, Integer>> adj = new HashMap<>();
+    // routing view over the current layout; dropped whenever the layout changes
+    private transient volatile ShelfRouter router;
+    private transient volatile long version; // bumped on every layout change
 
-    public void addShelf(String shelf) {
-        adj.putIfAbsent(shelf, new HashMap<>());
+    public synchronized void addShelf(String shelf) {
+        if (adj.putIfAbsent(shelf, new HashMap<>()) == null) layoutChanged();
     }
 
-    public void addPath(String a, String b, int distance) {
+    public synchronized void addPath(String a, String b, int distance) {
         addShelf(a);
         addShelf(b);
-        adj.get(a).put(b, distance);
-        adj.get(b).put(a, distance);
+        Integer ab = adj.get(a).put(b, distance);
+        Integer ba = adj.get(b).put(a, distance);
+        // re-adding an existing path (e.g. on every startup) keeps the router and cached paths
+        if (!Objects.equals(ab, distance) || !Objects.equals(ba, distance)) layoutChanged();
     }
 
-    /**
-     * Dijkstra returns pair: (distance, path list). If unreachable, distance = Integer.MAX_VALUE
-     */
-    public Pair<Integer, List<String>> shortestPath(String start, String end) {
-        if (!adj.containsKey(start) || !adj.containsKey(end)) return new Pair<>(Integer.MAX_VALUE, Collections.emptyList());
+    private void layoutChanged() {
+        router = null;
+        version++; // only written under the monitor
+    }
 
-        Map<String, Integer> dist = new HashMap<>();
-        Map<String, String> parent = new HashMap<>();
-        for (String node : adj.keySet()) dist.put(node, Integer.MAX_VALUE);
-        dist.put(start, 0);
+    public long version() {
+        return version;
+    }
 
-        PriorityQueue<Map.Entry<String, Integer>> pq = new PriorityQueue<>(Map.Entry.comparingByValue());
-        pq.add(new AbstractMap.SimpleEntry<>(start, 0));
-        Set<String> visited = new HashSet<>();
+    public synchronized Set<String> shelves() {
+        return new HashSet<>(adj.keySet());
+    }
 
-        while (!pq.isEmpty()) {
-            String cur = pq.poll().getKey();
-            if (!visited.add(cur)) continue;
-            if (cur.equals(end)) break;
+    public synchronized Map<String, Integer> neighbors(String shelf) {
+        Map<String, Integer> nb = adj.get(shelf);
+        return nb == null ? Collections.emptyMap() : new HashMap<>(nb);
+    }
 
-            for (Map.Entry<String, Integer> nb : adj.get(cur).entrySet()) {
-                int nd = dist.get(cur) + nb.getValue();
-                if (nd < dist.get(nb.getKey())) {
-                    dist.put(nb.getKey(), nd);
-                    parent.put(nb.getKey(), cur);
-                    pq.add(new AbstractMap.SimpleEntry<>(nb.getKey(), nd));
-                }
-            }
+    /** Current routing view, rebuilt lazily after layout changes */
+    public ShelfRouter router() {
+        ShelfRouter r = router;
+        if (r != null) return r;
+        synchronized (this) {
+            if (router == null) router = new ShelfRouter(adj);
+            return router;
         }
+    }
 
-        if (dist.get(end) == Integer.MAX_VALUE) return new Pair<>(Integer.MAX_VALUE, Collections.emptyList());
-
-        // reconstruct path
-        LinkedList<String> path = new LinkedList<>();
-        String cur = end;
-        while (cur != null) {
-            path.addFirst(cur);
-            cur = parent.get(cur);
+    /**
+     * Shortest path from the cached shortest-path tree of start (Dijkstra on first use).
+     * Returns pair: (distance, path list). If unreachable, distance = Integer.MAX_VALUE
+     */
+    public Pair<Integer, List<String>> shortestPath(String start, String end) {
+        long t0 = System.nanoTime();
+        try {
+            ShelfRouter r = router();
+            int s = r.id(start), e = r.id(end);
+            if (s < 0 || e < 0) return new Pair<>(Integer.MAX_VALUE, Collections.emptyList());
+            int dist = r.distance(s, e);
+            if (dist == ShelfRouter.INF) return new Pair<>(Integer.MAX_VALUE, Collections.emptyList());
+            return new Pair<>(dist, r.path(s, e));
+        } finally {
+            PATH_TIME.recordSince(t0);
         }
-        return new Pair<>(dist.get(end), path);
     }
 
     // Simple Pair helper
@@ -0,0 +1,274 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead journal of Library mutations.
+ *
+ * Records are framed as [length][seq, type, fields...][crc32] and appended to
+ * an in-memory batch; a single flusher thread writes each batch and fsyncs it
+ * (group commit), so many concurrent mutations share one force(). Callers that
+ * need durability wait on awaitDurable(seq) after releasing their locks.
+ *
+ * The journal is split into segments named by their first sequence number.
+ * A checkpoint (Library.saveState) writes a snapshot, then rolls over to a new
+ * segment and deletes the older ones, which the snapshot now covers.
+ */
+public class LibraryJournal implements Closeable {
+    public static final byte ADD_BOOK = 1, ADD_USER = 2, ISSUE = 3, WAIT = 4, RETURN = 5, HOLD_EXPIRED = 6;
+    // a whole borrowBooks/returnBooks batch: (user, isbn) pairs, or the return time followed by isbns
+    public static final byte BORROW_BATCH = 7, RETURN_BATCH = 8;
+    // (user, title): a loan made on another shard, recorded in the history on the user's home shard
+    public static final byte LOAN = 9;
+    // books added by one bulk import, five fields (isbn, title, author, category, shelf) per book;
+    // a large import spans several records
+    public static final byte ADD_BOOKS = 10;
+
+    private static final String PREFIX = "library_journal.";
+    private static final String SUFFIX = ".log";
+    static final int MAX_RECORD = 1 << 20;
+    static final int MAX_FIELD = 0xFFFF; // bytes of modified UTF-8 writeUTF accepts
+
+    private final Path dir;
+    private volatile FileChannel channel;
+    private Path segment;
+
+    private ByteArrayOutputStream batch = new ByteArrayOutputStream();
+    private long nextSeq;
+    private long batchedSeq;   // highest seq in the batch being filled
+    private long durableSeq;   // highest seq known to be on disk
+    private boolean closed;
+    private IOException failure;
+    private final Thread flusher;
+
+    public interface Replayer {
+        void apply(long seq, byte type, String[] fields);
+    }
+
+    public LibraryJournal(Path dir, long firstSeq) throws IOException {
+        this.dir = dir;
+        this.nextSeq = firstSeq;
+        this.batchedSeq = firstSeq - 1;
+        this.durableSeq = firstSeq - 1;
+        openSegment(firstSeq);
+        flusher = new Thread(this::flushLoop, "library-journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    private void openSegment(long firstSeq) throws IOException {
+        segment = dir.resolve(String.format("%s%020d%s", PREFIX, firstSeq, SUFFIX));
+        // a segment with this name can only hold a torn tail the snapshot already superseded
+        channel = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Append a record to the current batch and return its sequence number. A
+     * record replay would not accept (a field over 64 KB of UTF-8, more than
+     * 65535 fields, over MAX_RECORD in all) is refused with
+     * IllegalArgumentException before it takes a sequence number, so callers
+     * that journal before mutating leave no trace of it.
+     */
+    public synchronized long append(byte type, String... fields) throws IOException {
+        if (failure != null) throw failure;
+        if (closed) throw new IOException("journal closed");
+        if (fields.length > 0xFFFF) throw new IllegalArgumentException("Journal record has too many fields: " + fields.length);
+        long seq = nextSeq;
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(payload);
+        out.writeLong(seq);
+        out.writeByte(type);
+        out.writeShort(fields.length);
+        try {
+            for (String f : fields) out.writeUTF(f == null ? "" : f);
+        } catch (UTFDataFormatException e) {
+            throw new IllegalArgumentException("Journal record field longer than 64 KB", e);
+        }
+        byte[] body = payload.toByteArray();
+        if (body.length > MAX_RECORD) throw new IllegalArgumentException("Journal record of " + body.length + " bytes exceeds " + MAX_RECORD);
+        nextSeq++;
+        CRC32 crc = new CRC32();
+        crc.update(body);
+
+        DataOutputStream frame = new DataOutputStream(batch);
+        frame.writeInt(body.length);
+        frame.write(body);
+        frame.writeInt((int) crc.getValue());
+        batchedSeq = seq;
+        notifyAll();
+        return seq;
+    }
+
+    /** Bytes a field takes in a record body: its modified UTF-8 encoding and 2-byte length */
+    static int encodedSize(String field) {
+        if (field == null) return 2;
+        int n = 2;
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            n += c >= 1 && c <= 0x7F ? 1 : c <= 0x7FF ? 2 : 3;
+        }
+        return n;
+    }
+
+    /** Block until every record up to seq has been fsynced */
+    public synchronized void awaitDurable(long seq) throws IOException {
+        boolean interrupted = false;
+        while (durableSeq < seq && failure == null && !closed) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        if (failure != null) throw failure;
+    }
+
+    public synchronized long lastSeq() {
+        return nextSeq - 1;
+    }
+
+    private void flushLoop() {
+        while (true) {
+            byte[] data;
+            long upTo;
+            synchronized (this) {
+                while (batch.size() == 0 && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (batch.size() == 0) return;
+                data = batch.toByteArray();
+                upTo = batchedSeq;
+                batch = new ByteArrayOutputStream(Math.max(256, data.length));
+            }
+            try {
+                writeFully(data);
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                return;
+            }
+            synchronized (this) {
+                durableSeq = Math.max(durableSeq, upTo);
+                notifyAll();
+            }
+        }
+    }
+
+    // only one writer at a time: the flusher, or rollover/close holding the monitor with the flusher idle
+    private void writeFully(byte[] data) throws IOException {
+        synchronized (channel) {
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            while (buf.hasRemaining()) channel.write(buf);
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Wait for everything appended so far to be durable, then continue in a fresh
+     * segment and delete the older segments. Called with mutations quiesced,
+     * after a snapshot covering all records so far has been written.
+     */
+    public void rollover() throws IOException {
+        long last;
+        synchronized (this) {
+            last = nextSeq - 1;
+        }
+        awaitDurable(last);
+        synchronized (this) {
+            synchronized (channel) {
+                channel.close();
+                openSegment(nextSeq);
+            }
+            for (Path old : segments(dir)) {
+                if (!old.equals(segment)) Files.deleteIfExists(old);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        long last;
+        synchronized (this) {
+            last = nextSeq - 1;
+        }
+        awaitDurable(last);
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (channel) {
+            channel.close();
+        }
+    }
+
+    static List<Path> segments(Path dir) throws IOException {
+        List<Path> out = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path p : ds) out.add(p);
+        }
+        Collections.sort(out); // zero-padded first seq sorts lexically
+        return out;
+    }
+
+    public static boolean exists(Path dir) throws IOException {
+        return !segments(dir).isEmpty();
+    }
+
+    /**
+     * Replay every intact record with seq > afterSeq in order and return the last
+     * seq seen. Stops at the first torn or corrupt record (a crash mid-write).
+     */
+    public static long replay(Path dir, long afterSeq, Replayer replayer) throws IOException {
+        long last = afterSeq;
+        for (Path p : segments(dir)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(p)))) {
+                while (true) {
+                    int len;
+                    try {
+                        len = in.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    if (len <= 0 || len > MAX_RECORD) return last;
+                    byte[] body = new byte[len];
+                    int crcValue;
+                    try {
+                        in.readFully(body);
+                        crcValue = in.readInt();
+                    } catch (EOFException e) {
+                        return last; // torn tail
+                    }
+                    CRC32 crc = new CRC32();
+                    crc.update(body);
+                    if ((int) crc.getValue() != crcValue) return last;
+
+                    DataInputStream rec = new DataInputStream(new ByteArrayInputStream(body));
+                    long seq = rec.readLong();
+                    byte type = rec.readByte();
+                    String[] fields = new String[rec.readUnsignedShort()];
+                    for (int i = 0; i < fields.length; i++) fields[i] = rec.readUTF();
+                    if (seq <= afterSeq) continue;
+                    replayer.apply(seq, type, fields);
+                    last = seq;
+                }
+            }
+        }
+        return last;
+    }
+}
@@ -0,0 +1,63 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Live catalog counters maintained by the Library's mutation paths, so the
+ * dashboard's stats read never scans the catalog. Every counter is a LongAdder:
+ * concurrent borrows and returns on different stripes update them without
+ * contending, and reads never take a lock. The available count is not a
+ * counter but a popcount of the CatalogStore's availability bits (one word per
+ * 64 books), so borrows and returns do no stats bookkeeping at all. A read
+ * while mutations are in flight may mix counts from just before and just after
+ * one of them; each count on its own is exact once they settle.
+ */
+public class LibraryStats {
+    private final LongAdder books = new LongAdder();
+    private final LongSupplier available;
+    private final LongAdder users = new LongAdder();
+    private final LongAdder waitlisted = new LongAdder();
+    private final ConcurrentHashMap<String, LongAdder> byCategory = new ConcurrentHashMap<>();
+
+    LibraryStats(LongSupplier availableCount) {
+        this.available = availableCount;
+    }
+
+    void bookAdded(Book b) {
+        books.increment();
+        waitlisted.add(b.waitingCount());
+        byCategory.computeIfAbsent(String.valueOf(b.category), c -> new LongAdder()).increment();
+    }
+
+    void bookRemoved(Book b) {
+        books.decrement();
+        waitlisted.add(-b.waitingCount());
+        LongAdder c = byCategory.get(String.valueOf(b.category));
+        if (c != null) c.decrement();
+    }
+
+    void userAdded() {
+        users.increment();
+    }
+
+    void waitlistChanged(int delta) {
+        waitlisted.add(delta);
+    }
+
+    public long totalBooks() { return books.sum(); }
+    public long availableBooks() { return available.getAsLong(); }
+    public long borrowedBooks() { return books.sum() - available.getAsLong(); }
+    public long totalUsers() { return users.sum(); }
+    public long waitlistedEntries() { return waitlisted.sum(); }
+
+    /** Book count per category, sorted by category name; categories that emptied out are left out */
+    public Map<String, Long> booksByCategory() {
+        Map<String, Long> out = new TreeMap<>();
+        byCategory.forEach((category, count) -> {
+            long n = count.sum();
+            if (n > 0) out.put(category, n);
+        });
+        return out;
+    }
+}
@@ -1,8 +1,13 @@
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
 import com.sun.net.httpserver.*;
 
 /**
@@ -12,61 +17,163 @@ import com.sun.net.httpserver.*;
 public class LibraryWebServer {
     private static final int PORT = 8080;
     private static final String FRONTEND_DIR = "frontend";
-    private static Library library;
+    // server-side catalog dumps that /api/books/bulk?file= may import
+    private static final String IMPORT_DIR = System.getProperty("library.import.dir", "imports");
+    // how often the journal is compacted into a fresh snapshot
+    private static final int CHECKPOINT_MINUTES = Integer.getInteger("library.checkpointMinutes", 5);
+    // in-process shards the catalog is partitioned into (see ShardedLibrary); 1 is a single Library
+    private static final int SHARDS = Integer.getInteger("library.shards", 1);
+    // coordinator: forwards borrows and returns to the owning shard, scatters catalog-wide reads
+    private static ShardedLibrary library;
     private HttpServer server;
+    private final RequestScheduler scheduler = RequestScheduler.fromSystemProperties();
+    private final ResponseCache responseCache = new ResponseCache();
+    private ScheduledExecutorService checkpointer;
+    // live change stream for /api/events (see EventBus)
+    private static final int EVENT_BUFFER = Integer.getInteger("library.events.buffer", 8192);
+    private static final int EVENT_SUBSCRIBERS = Integer.getInteger("library.events.maxSubscribers", 64);
+    private final EventBus events = new EventBus(EVENT_BUFFER, EVENT_SUBSCRIBERS, this::statsJson);
+    private long statsVersionSent = -1; // checkpointer thread only
 
     public LibraryWebServer() throws IOException {
         // Initialize library
-        library = Library.loadState();
+        library = ShardedLibrary.loadState(SHARDS);
         if (library == null) {
-            library = new Library();
+            library = ShardedLibrary.create(SHARDS);
             populateSampleData();
         }
+        library.openJournal();
+        library.publishTo(events);
 
-        // Create HTTP server
+        // Create HTTP server. Responses go out as separate header and body writes,
+        // so on keep-alive connections Nagle plus delayed ACK adds ~40 ms to each
+        // request unless TCP_NODELAY is on (read when the server class loads).
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
         server = HttpServer.create(new InetSocketAddress(PORT), 0);
         
         // Set up routes
         setupRoutes();
+        ShardedLibrary.Stats stats = library.stats();
+        Metrics.gauge("library_books", "Books in the catalog", stats::totalBooks);
+        Metrics.gauge("library_books_available", "Books on the shelf", stats::availableBooks);
+        Metrics.gauge("library_users", "Registered users", stats::totalUsers);
+        Metrics.gauge("library_waitlisted", "Waiting-list entries across all books", stats::waitlistedEntries);
+        Metrics.gauge("library_holds", "Returned books held for pickup", library::holdCount);
+        Metrics.gauge("library_event_subscribers", "Open /api/events streams", events::subscriberCount);
         
-        // Set executor
-        server.setExecutor(Executors.newFixedThreadPool(10));
+        // Set executor (see RequestScheduler for the execution modes)
+        server.setExecutor(scheduler.serverExecutor());
     }
 
     private void setupRoutes() {
         // Serve static files
-        server.createContext("/", new StaticFileHandler());
+        route("/", RequestScheduler.STATIC, new StaticFileHandler());
         
-        // API routes
-        server.createContext("/api/books", new BooksHandler());
-        server.createContext("/api/users", new UsersHandler());
-        server.createContext("/api/borrow", new BorrowHandler());
-        server.createContext("/api/return", new ReturnHandler());
-        server.createContext("/api/search", new SearchHandler());
-        server.createContext("/api/path", new PathHandler());
-        server.createContext("/api/recommend", new RecommendHandler());
-        server.createContext("/api/stats", new StatsHandler());
+        // API routes, each on the pool of its cost class; cacheable reads get a ResponseCache filter
+        // keyed on the narrowest version covering what they show (every book answer carries its status)
+        LongSupplier shelfVersion = () -> library.catalogVersion() + library.availabilityVersion();
+        cached(route("/api/books", RequestScheduler.HEAVY, new BooksHandler()), shelfVersion);
+        route("/api/books/bulk", RequestScheduler.HEAVY, new BulkImportHandler());
+        route("/api/users", RequestScheduler.READ, new UsersHandler());
+        route("/api/borrow", RequestScheduler.WRITE, new BorrowHandler());
+        route("/api/return", RequestScheduler.WRITE, new ReturnHandler());
+        route("/api/borrow/batch", RequestScheduler.WRITE, new BorrowBatchHandler());
+        route("/api/return/batch", RequestScheduler.WRITE, new ReturnBatchHandler());
+        cached(route("/api/search", RequestScheduler.READ, new SearchHandler()), shelfVersion);
+        cached(route("/api/path", RequestScheduler.READ, new PathHandler()), library.getGraph()::version);
+        route("/api/route", RequestScheduler.HEAVY, new RouteHandler());
+        cached(route("/api/categories", RequestScheduler.READ, new CategoriesHandler()), shelfVersion);
+        cached(route("/api/recommend", RequestScheduler.HEAVY, new RecommendHandler()), this::recommendVersion);
+        route("/api/stats", RequestScheduler.READ, new StatsHandler());
+        route("/api/server", RequestScheduler.READ, new ServerHandler());
+        route("/api/metrics", RequestScheduler.READ, new MetricsHandler());
+        // not through a pool: the handler only hands the open exchange to its stream thread, which closes it
+        server.createContext("/api/events", new EventsHandler());
+    }
+
+    /** Register a handler, timed under its path and run on the given pool */
+    private HttpContext route(String path, String pool, HttpHandler handler) {
+        return server.createContext(path, scheduler.wrap(pool, Metrics.timed(path, handler)));
+    }
+
+    private void cached(HttpContext context, LongSupplier version) {
+        context.getFilters().add(responseCache.filter(version, Metrics.HTTP.get(context.getPath())));
+    }
+
+    private void cached(HttpContext context, ToLongFunction<HttpExchange> version) {
+        context.getFilters().add(responseCache.filter(version, Metrics.HTTP.get(context.getPath())));
+    }
+
+    /**
+     * Recommendations follow the catalog, the status of the books they list and
+     * the user's own history; co-borrowing ("cf") also follows everyone else's.
+     * Waiting lists and other users' histories leave a user's cached
+     * recommendations alone.
+     */
+    private long recommendVersion(HttpExchange exchange) {
+        String user = getQueryParam(exchange, "user");
+        long history = "cf".equals(getQueryParam(exchange, "mode")) ? library.historyVersion()
+            : user == null ? 0 : library.historyVersion(user);
+        return library.catalogVersion() + library.availabilityVersion() + history;
     }
 
     public void start() {
         server.start();
+        checkpointer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "library-checkpoint");
+            t.setDaemon(true);
+            return t;
+        });
+        checkpointer.scheduleWithFixedDelay(() -> {
+            try {
+                library.saveState();
+            } catch (IOException e) {
+                System.err.println("❌ Checkpoint failed: " + e.getMessage());
+            }
+        }, CHECKPOINT_MINUTES, CHECKPOINT_MINUTES, TimeUnit.MINUTES);
+        // pickup holds run on a one-second timing wheel: each tick only touches what expired
+        checkpointer.scheduleWithFixedDelay(() -> {
+            try {
+                library.expireHolds();
+            } catch (RuntimeException e) {
+                // a failure must not cancel the schedule
+                System.err.println("❌ Hold expiry failed: " + e);
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+        // absolute counters now and then, correcting clients that summed event deltas
+        checkpointer.scheduleWithFixedDelay(() -> {
+            long v = library.version();
+            if (events.active() && v != statsVersionSent) {
+                statsVersionSent = v;
+                events.publish("stats", statsJson());
+            }
+        }, 5, 5, TimeUnit.SECONDS);
         System.out.println("🚀 Library Management System Web Server started!");
+        if (library.shardCount() > 1) System.out.println("🧩 Catalog partitioned into " + library.shardCount() + " shards");
         System.out.println("📱 Open your browser and visit: http://localhost:" + PORT);
         System.out.println("🛑 Press Ctrl+C to stop the server");
     }
 
     public void stop() {
+        events.close();
         server.stop(0);
+        scheduler.shutdown();
+        if (checkpointer != null) checkpointer.shutdown();
         try {
             library.saveState();
+            library.closeJournal();
             System.out.println("💾 Library state saved successfully!");
         } catch (IOException e) {
             System.err.println("❌ Error saving state: " + e.getMessage());
         }
     }
 
-    // Static file handler for serving HTML, CSS, JS files
+    // Static file handler for serving HTML, CSS, JS files (cached, see StaticAssets)
     class StaticFileHandler implements HttpHandler {
+        private final StaticAssets assets = new StaticAssets(FRONTEND_DIR);
+
         @Override
         public void handle(HttpExchange exchange) throws IOException {
             String path = exchange.getRequestURI().getPath();
@@ -76,42 +183,7 @@ public class LibraryWebServer {
                 path = "/index.html";
             }
             
-            File file = new File(FRONTEND_DIR + path);
-            
-            if (file.exists() && !file.isDirectory()) {
-                // Determine content type
-                String contentType = getContentType(path);
-                
-                // Read file content
-                byte[] content = Files.readAllBytes(file.toPath());
-                
-                // Send response
-                exchange.getResponseHeaders().set("Content-Type", contentType);
-                exchange.sendResponseHeaders(200, content.length);
-                
-                try (OutputStream os = exchange.getResponseBody()) {
-                    os.write(content);
-                }
-            } else {
-                // File not found
-                String response = "404 - File Not Found";
-                exchange.sendResponseHeaders(404, response.length());
-                try (OutputStream os = exchange.getResponseBody()) {
-                    os.write(response.getBytes());
-                }
-            }
-        }
-        
-        private String getContentType(String path) {
-            if (path.endsWith(".html")) return "text/html";
-            if (path.endsWith(".css")) return "text/css";
-            if (path.endsWith(".js")) return "application/javascript";
-            if (path.endsWith(".json")) return "application/json";
-            if (path.endsWith(".png")) return "image/png";
-            if (path.endsWith(".jpg") || path.endsWith(".jpeg")) return "image/jpeg";
-            if (path.endsWith(".gif")) return "image/gif";
-            if (path.endsWith(".svg")) return "image/svg+xml";
-            return "text/plain";
+            assets.serve(exchange, path);
         }
     }
 
@@ -122,18 +194,114 @@ public class LibraryWebServer {
             String method = exchange.getRequestMethod();
             
             if ("GET".equals(method)) {
-                // Get all books
-                Collection<Book> books = library.allBooks();
-                String json = booksToJson(new ArrayList<>(books));
-                sendJsonResponse(exchange, json);
+                // GET /api/books[?after=ISBN][&limit=N][&fields=isbn,title], streamed in ISBN order
+                boolean[] fields = parseBookFields(getQueryParam(exchange, "fields"));
+                if (fields == null) {
+                    sendJsonResponse(exchange, "{\"error\": \"Unknown field in fields parameter\"}");
+                    return;
+                }
+                Iterator<Book> it = library.booksAfter(getQueryParam(exchange, "after")).iterator();
+                String limitParam = getQueryParam(exchange, "limit");
+                Iterator<Book> page = it;
+                if (limitParam != null) {
+                    // a page is small: collect it so the next cursor can go in a header
+                    List<Book> books = new ArrayList<>();
+                    int limit = parseLimit(limitParam, 100, 1000);
+                    while (books.size() < limit && it.hasNext()) books.add(it.next());
+                    if (it.hasNext()) exchange.getResponseHeaders().set("X-Next-After", books.get(books.size() - 1).isbn);
+                    page = books.iterator();
+                }
+                exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+                exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+                exchange.getResponseHeaders().set("Access-Control-Expose-Headers", "X-Next-After");
+                exchange.sendResponseHeaders(200, 0); // chunked
+                try (JsonWriter json = new JsonWriter(exchange.getResponseBody())) {
+                    json.beginArray();
+                    while (page.hasNext()) writeBook(json, page.next(), fields);
+                    json.endArray();
+                }
             } else if ("POST".equals(method)) {
-                // Add new book
-                // For demo purposes, we'll just return success
+                // Add new book from {"isbn", "title", "author", "category", "shelf"}
+                String[] fields = new String[5];
+                try {
+                    Map<String, Object> body = JsonReader.parseObject(readRequestBody(exchange));
+                    String[] names = {"isbn", "title", "author", "category", "shelf"};
+                    for (int i = 0; i < names.length; i++) {
+                        String v = JsonReader.string(body, names[i]);
+                        fields[i] = v == null ? null : v.trim();
+                    }
+                } catch (IllegalArgumentException e) {
+                    sendJsonResponse(exchange, "{\"success\": false, \"message\": \"Invalid JSON body\"}");
+                    return;
+                }
+                String problem = BulkImporter.validate(fields);
+                if (problem != null) {
+                    sendJsonResponse(exchange, "{\"success\": false, \"message\": \"" + problem + "\"}");
+                    return;
+                }
+                library.addBook(new Book(fields[0], fields[1], fields[2] == null ? "" : fields[2],
+                        fields[3] == null ? "" : fields[3], fields[4] == null ? "" : fields[4]));
                 sendJsonResponse(exchange, "{\"success\": true, \"message\": \"Book added\"}");
             }
         }
     }
 
+    /**
+     * Bulk catalog import (see BulkImporter). POST /api/books/bulk?file=dump.csv imports a file
+     * from the import directory; otherwise the request body is the dump (format=csv|jsonl, or
+     * guessed from its first byte).
+     */
+    class BulkImportHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                sendJsonResponse(exchange, "{\"error\": \"POST a CSV or JSONL catalog\"}");
+                return;
+            }
+            String name = getQueryParam(exchange, "file");
+            String format = getQueryParam(exchange, "format");
+            Path file;
+            Path spooled = null;
+            if (name != null) {
+                Path dir = Paths.get(IMPORT_DIR).toAbsolutePath().normalize();
+                file = dir.resolve(name).normalize();
+                if (!file.startsWith(dir) || !Files.isRegularFile(file)) {
+                    sendJsonResponse(exchange, "{\"error\": \"No such file in the import directory\"}");
+                    return;
+                }
+            } else {
+                // spool the upload so the importer can map it like any other dump
+                spooled = file = Files.createTempFile("library-import", ".dump");
+                try (InputStream in = exchange.getRequestBody()) {
+                    Files.copy(in, spooled, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            try {
+                BulkImporter.Format f = format == null ? BulkImporter.detect(file)
+                        : "jsonl".equalsIgnoreCase(format) ? BulkImporter.Format.JSONL : BulkImporter.Format.CSV;
+                BulkImporter.Result r = BulkImporter.importFile(library, file, f);
+                exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+                exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+                exchange.sendResponseHeaders(200, 0);
+                try (JsonWriter json = new JsonWriter(exchange.getResponseBody())) {
+                    json.beginObject()
+                        .name("records").value(r.records)
+                        .name("imported").value(r.imported)
+                        .name("duplicates").value(r.duplicates)
+                        .name("existing").value(r.existing)
+                        .name("invalid").value(r.invalid)
+                        .name("millis").value(r.millis)
+                        .name("recordsPerSecond").value(r.recordsPerSecond())
+                        .name("errors").beginArray();
+                    for (String e : r.errors) json.value(e);
+                    json.endArray().endObject();
+                }
+            } finally {
+                if (spooled != null) Files.deleteIfExists(spooled);
+            }
+        }
+    }
+
     class UsersHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
@@ -145,35 +313,197 @@ public class LibraryWebServer {
         }
     }
 
+    // POST {"userName", "isbn"}
     class BorrowHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
             if ("POST".equals(exchange.getRequestMethod())) {
-                // For demo purposes, using mock data
-                String result = library.borrowBook("Test User", "INB001");
-                String json = "{\"success\": true, \"message\": \"" + result + "\"}";
-                sendJsonResponse(exchange, json);
+                List<Map<String, Object>> items = parseItems(exchange, false);
+                if (items == null) return;
+                String userName = field(items.get(0), "userName"), isbn = field(items.get(0), "isbn");
+                String result = userName == null || isbn == null ? "userName and isbn are required"
+                        : library.borrowBook(userName, isbn);
+                try (JsonWriter json = startJson(exchange)) {
+                    json.beginObject().name("success").value(borrowStatus(result) != null).name("message").value(result).endObject();
+                }
             }
         }
     }
 
+    // POST {"isbn"}
     class ReturnHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
             if ("POST".equals(exchange.getRequestMethod())) {
-                // For demo purposes, using mock ISBN
-                String result = library.returnBook("INB001");
-                String json = "{\"success\": true, \"message\": \"" + result + "\"}";
-                sendJsonResponse(exchange, json);
+                List<Map<String, Object>> items = parseItems(exchange, false);
+                if (items == null) return;
+                String isbn = field(items.get(0), "isbn");
+                String result = isbn == null ? "isbn is required" : library.returnBook(isbn);
+                try (JsonWriter json = startJson(exchange)) {
+                    json.beginObject().name("success").value(returnStatus(result) != null).name("message").value(result).endObject();
+                }
+            }
+        }
+    }
+
+    /**
+     * POST [{"userName", "isbn"}, ...] (or {"items": [...]}): a kiosk's whole scan
+     * in one request. Applied as one batch (see Library.borrowBooks) and answered
+     * with one result per item, in order: status issued, waitlisted or failed.
+     */
+    class BorrowBatchHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                sendJsonResponse(exchange, "{\"error\": \"POST a list of {userName, isbn}\"}");
+                return;
+            }
+            List<Map<String, Object>> items = parseItems(exchange, true);
+            if (items == null) return;
+            List<Map.Entry<String, String>> loans = new ArrayList<>();
+            List<Integer> positions = new ArrayList<>();
+            String[] results = new String[items.size()];
+            for (int i = 0; i < items.size(); i++) {
+                String userName = field(items.get(i), "userName"), isbn = field(items.get(i), "isbn");
+                if (userName == null || isbn == null) {
+                    results[i] = "userName and isbn are required";
+                } else {
+                    loans.add(Map.entry(userName, isbn));
+                    positions.add(i);
+                }
+            }
+            List<String> done = library.borrowBooks(loans);
+            for (int j = 0; j < done.size(); j++) results[positions.get(j)] = done.get(j);
+            writeBatchResults(exchange, items, results, true);
+        }
+    }
+
+    /** POST [{"isbn"}, ...] (or {"items": [...]}): a book-drop run, as one batch (see Library.returnBooks) */
+    class ReturnBatchHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                sendJsonResponse(exchange, "{\"error\": \"POST a list of {isbn}\"}");
+                return;
+            }
+            List<Map<String, Object>> items = parseItems(exchange, true);
+            if (items == null) return;
+            List<String> isbns = new ArrayList<>();
+            List<Integer> positions = new ArrayList<>();
+            String[] results = new String[items.size()];
+            for (int i = 0; i < items.size(); i++) {
+                String isbn = field(items.get(i), "isbn");
+                if (isbn == null) {
+                    results[i] = "isbn is required";
+                } else {
+                    isbns.add(isbn);
+                    positions.add(i);
+                }
+            }
+            List<String> done = library.returnBooks(isbns);
+            for (int j = 0; j < done.size(); j++) results[positions.get(j)] = done.get(j);
+            writeBatchResults(exchange, items, results, false);
+        }
+    }
+
+    /**
+     * The request body as a list of item objects: a single object, or (batch) a
+     * JSON array or {"items": [...]} of at most Library.MAX_BATCH objects whose
+     * strings are at most Library.MAX_BATCH_KEY long. Null after answering with
+     * an error.
+     */
+    @SuppressWarnings("unchecked")
+    private List<Map<String, Object>> parseItems(HttpExchange exchange, boolean batch) throws IOException {
+        Object body;
+        try {
+            body = JsonReader.parse(readRequestBody(exchange));
+        } catch (IllegalArgumentException e) {
+            sendJsonResponse(exchange, "{\"success\": false, \"message\": \"Invalid JSON body\"}");
+            return null;
+        }
+        if (batch && body instanceof Map && ((Map<String, Object>) body).get("items") instanceof List) {
+            body = ((Map<String, Object>) body).get("items");
+        }
+        List<Object> raw = body instanceof List && batch ? (List<Object>) body
+                : body instanceof Map && !batch ? Collections.singletonList(body) : null;
+        if (raw == null || raw.stream().anyMatch(o -> !(o instanceof Map))) {
+            sendJsonResponse(exchange, "{\"success\": false, \"message\": \""
+                    + (batch ? "Expected a JSON array of objects" : "Expected a JSON object") + "\"}");
+            return null;
+        }
+        if (raw.size() > Library.MAX_BATCH) {
+            sendJsonResponse(exchange, "{\"success\": false, \"message\": \"At most " + Library.MAX_BATCH + " items per batch\"}");
+            return null;
+        }
+        List<Map<String, Object>> items = new ArrayList<>(raw.size());
+        for (Object o : raw) {
+            Map<String, Object> item = (Map<String, Object>) o;
+            if (batch && item.values().stream().anyMatch(v -> v instanceof String && ((String) v).trim().length() > Library.MAX_BATCH_KEY)) {
+                sendJsonResponse(exchange, "{\"success\": false, \"message\": \"ISBNs and user names are limited to "
+                        + Library.MAX_BATCH_KEY + " characters\"}");
+                return null;
+            }
+            items.add(item);
+        }
+        return items;
+    }
+
+    private static String field(Map<String, Object> item, String name) {
+        Object raw = item.get(name);
+        if (raw instanceof Map || raw instanceof List) return null; // not a scalar
+        String v = JsonReader.string(item, name);
+        return v == null || v.trim().isEmpty() ? null : v.trim();
+    }
+
+    // outcome of a borrow or return message; null when nothing changed
+    private static String borrowStatus(String result) {
+        return result.startsWith("SUCCESS") ? "issued" : result.startsWith("Placed ") ? "waitlisted" : null;
+    }
+
+    private static String returnStatus(String result) {
+        return result.startsWith("Book ") && result.contains(" returned") ? "returned" : null;
+    }
+
+    private void writeBatchResults(HttpExchange exchange, List<Map<String, Object>> items, String[] results,
+                                   boolean borrow) throws IOException {
+        int succeeded = 0;
+        try (JsonWriter json = startJson(exchange)) {
+            json.beginObject().name("results").beginArray();
+            for (int i = 0; i < results.length; i++) {
+                String status = borrow ? borrowStatus(results[i]) : returnStatus(results[i]);
+                if (status != null) succeeded++;
+                json.beginObject();
+                if (borrow) json.name("userName").value(field(items.get(i), "userName"));
+                json.name("isbn").value(field(items.get(i), "isbn"))
+                    .name("status").value(status == null ? "failed" : status)
+                    .name("message").value(results[i])
+                    .endObject();
             }
+            json.endArray()
+                .name("succeeded").value(succeeded)
+                .name("failed").value(results.length - succeeded)
+                .endObject();
         }
     }
 
+    /** Headers for a streamed (chunked) JSON response, and a writer over its body */
+    private JsonWriter startJson(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+        exchange.sendResponseHeaders(200, 0);
+        return new JsonWriter(exchange.getResponseBody());
+    }
+
     class SearchHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
             String query = getQueryParam(exchange, "q");
-            if (query != null) {
+            String limit = getQueryParam(exchange, "limit");
+            if (query != null && (limit != null || "text".equals(getQueryParam(exchange, "mode")))) {
+                // ranked full-text mode over title, author and category
+                List<SearchIndex.Hit> hits = library.searchFullText(query, parseLimit(limit, 10, 100));
+                sendJsonResponse(exchange, hitsToJson(hits));
+            } else if (query != null) {
                 Book book = library.searchByTitleBinary(query);
                 String json = book != null ? bookToJson(book) : "{\"found\": false}";
                 sendJsonResponse(exchange, json);
@@ -200,12 +530,89 @@ public class LibraryWebServer {
         }
     }
 
+    // Pick-list run: GET /api/route?from=Shelf-1&isbns=A,B,C (long lists may go in a POST body)
+    class RouteHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String from = getQueryParam(exchange, "from");
+            String list = getQueryParam(exchange, "isbns");
+            if ("POST".equals(exchange.getRequestMethod())) {
+                String body = readRequestBody(exchange);
+                if (!body.trim().isEmpty()) list = body;
+            }
+            if (from == null || list == null) {
+                sendJsonResponse(exchange, "{\"error\": \"From and isbns parameters required\"}");
+                return;
+            }
+            List<String> isbns = new ArrayList<>();
+            for (String isbn : list.split("[,\\s\"\\[\\]]+")) {
+                if (!isbn.isEmpty()) isbns.add(isbn);
+            }
+            try {
+                sendJsonResponse(exchange, planToJson(library.planPickRun(from, isbns)));
+            } catch (IllegalArgumentException e) {
+                sendJsonResponse(exchange, errorJson(e.getMessage()));
+            }
+        }
+    }
+
+    // Category browse: GET /api/categories/Non-Fiction/Science[?offset=N][&limit=N][&available=true][&fields=...]
+    class CategoriesHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String path = exchange.getRequestURI().getPath().substring(exchange.getHttpContext().getPath().length());
+            boolean[] fields = parseBookFields(getQueryParam(exchange, "fields"));
+            if (fields == null) {
+                sendJsonResponse(exchange, "{\"error\": \"Unknown field in fields parameter\"}");
+                return;
+            }
+            CategoryIndex.Category category = library.category(path);
+            if (category == null) {
+                sendJsonResponse(exchange, "{\"error\": \"Category not found\"}");
+                return;
+            }
+            int offset = parseOffset(getQueryParam(exchange, "offset"));
+            int limit = parseLimit(getQueryParam(exchange, "limit"), 50, 1000);
+            boolean availableOnly = "true".equals(getQueryParam(exchange, "available"));
+            List<Book> page = library.booksInCategory(path, availableOnly, offset, limit);
+            if (page == null) page = Collections.emptyList(); // category vanished in a rebuild
+
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+            exchange.sendResponseHeaders(200, 0);
+            try (JsonWriter json = new JsonWriter(exchange.getResponseBody())) {
+                json.beginObject()
+                    .name("path").value(category.path)
+                    .name("name").value(category.name)
+                    .name("total").value(category.total)
+                    .name("available").value(category.available)
+                    .name("children").beginArray();
+                for (CategoryIndex.Category c : category.children) {
+                    json.beginObject()
+                        .name("path").value(c.path)
+                        .name("name").value(c.name)
+                        .name("total").value(c.total)
+                        .name("available").value(c.available)
+                        .endObject();
+                }
+                json.endArray()
+                    .name("offset").value(offset)
+                    .name("limit").value(limit)
+                    .name("books").beginArray();
+                for (Book b : page) writeBook(json, b, fields);
+                json.endArray().endObject();
+            }
+        }
+    }
+
     class RecommendHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
             String user = getQueryParam(exchange, "user");
             if (user != null) {
-                List<Book> recommendations = library.recommendByLastBorrow(user, 5);
+                List<Book> recommendations = "cf".equals(getQueryParam(exchange, "mode"))
+                    ? library.recommendByCoBorrow(user, 5)
+                    : library.recommendByLastBorrow(user, 5);
                 String json = booksToJson(recommendations);
                 sendJsonResponse(exchange, json);
             } else {
@@ -217,36 +624,100 @@ public class LibraryWebServer {
     class StatsHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            Collection<Book> allBooks = library.allBooks();
-            Set<String> userNames = library.listAllUsers();
-            
-            int totalBooks = allBooks.size();
-            int availableBooks = (int) allBooks.stream().filter(Book::isAvailable).count();
-            int borrowedBooks = totalBooks - availableBooks;
-            int totalUsers = userNames.size();
-            
-            String json = String.format(
-                "{\"totalBooks\": %d, \"availableBooks\": %d, \"borrowedBooks\": %d, \"totalUsers\": %d}",
-                totalBooks, availableBooks, borrowedBooks, totalUsers
-            );
-            
-            sendJsonResponse(exchange, json);
+            sendJsonResponse(exchange, statsJson());
+        }
+    }
+
+    // live counters: no catalog scan per poll
+    private String statsJson() {
+        ShardedLibrary.Stats stats = library.stats();
+        // through JsonWriter: category names are user data and may need escaping
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(256);
+        try (JsonWriter json = new JsonWriter(buf)) {
+            json.beginObject()
+                .name("totalBooks").value(stats.totalBooks())
+                .name("availableBooks").value(stats.availableBooks())
+                .name("borrowedBooks").value(stats.borrowedBooks())
+                .name("totalUsers").value(stats.totalUsers())
+                .name("waitlisted").value(stats.waitlistedEntries())
+                .name("onHold").value(library.holdCount())
+                .name("categories").beginObject();
+            for (Map.Entry<String, Long> e : stats.booksByCategory().entrySet()) json.name(e.getKey()).value(e.getValue());
+            json.endObject().endObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // in-memory: not expected
+        }
+        return new String(buf.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Server-Sent Events: GET /api/events streams "book", "books", "user" and
+     * "status" deltas as they happen, after a "hello" snapshot of the counters.
+     * A client that falls behind gets "resync" with a fresh snapshot; "stats"
+     * repeats the absolute counters every few seconds while anything changes.
+     */
+    class EventsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            EventBus.Subscriber subscriber = events.open(exchange.getRequestHeaders().getFirst("Last-Event-ID"));
+            if (subscriber == null) {
+                exchange.getResponseHeaders().set("Retry-After", "5");
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+            exchange.sendResponseHeaders(200, 0);
+            // the stream outlives this handler: its own thread writes until the client leaves
+            subscriber.start(exchange.getResponseBody(), exchange::close);
+        }
+    }
+
+    // Execution mode, pool saturation (rejections, queue depth, queue wait) and response cache counters
+    class ServerHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+            exchange.sendResponseHeaders(200, 0);
+            try (JsonWriter json = new JsonWriter(exchange.getResponseBody())) {
+                json.beginObject().name("execution");
+                scheduler.writeMetrics(json);
+                json.name("responseCache");
+                responseCache.writeMetrics(json);
+                json.endObject();
+            }
+        }
+    }
+
+    // Prometheus text exposition of latency histograms and catalog gauges
+    class MetricsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, 0);
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+                Metrics.writePrometheus(out);
+            }
         }
     }
 
     // Utility methods
     private void sendJsonResponse(HttpExchange exchange, String json) throws IOException {
-        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
         exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
-        exchange.sendResponseHeaders(200, json.length());
+        exchange.sendResponseHeaders(200, body.length);
         try (OutputStream os = exchange.getResponseBody()) {
-            os.write(json.getBytes());
+            os.write(body);
         }
     }
 
     private String readRequestBody(HttpExchange exchange) throws IOException {
         try (BufferedReader reader = new BufferedReader(
-                new InputStreamReader(exchange.getRequestBody()))) {
+                new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))) {
             StringBuilder body = new StringBuilder();
             String line;
             while ((line = reader.readLine()) != null) {
@@ -274,6 +745,24 @@ public class LibraryWebServer {
         return null;
     }
 
+    private int parseLimit(String value, int def, int max) {
+        if (value == null) return def;
+        try {
+            return Math.max(1, Math.min(max, Integer.parseInt(value)));
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    private int parseOffset(String value) {
+        if (value == null) return 0;
+        try {
+            return Math.max(0, Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
     // JSON conversion methods (simplified)
     private String booksToJson(List<Book> books) {
         StringBuilder json = new StringBuilder("[");
@@ -285,14 +774,55 @@ public class LibraryWebServer {
         return json.toString();
     }
 
+    private static final String[] BOOK_FIELDS = {"isbn", "title", "author", "category", "shelf", "status"};
+
+    /** Mask over BOOK_FIELDS for a comma-separated projection (all fields if absent), or null if a name is unknown */
+    private boolean[] parseBookFields(String value) {
+        boolean[] mask = new boolean[BOOK_FIELDS.length];
+        if (value == null || value.isEmpty()) {
+            Arrays.fill(mask, true);
+            return mask;
+        }
+        for (String name : value.split(",")) {
+            int f = Arrays.asList(BOOK_FIELDS).indexOf(name.trim());
+            if (f < 0) return null;
+            mask[f] = true;
+        }
+        return mask;
+    }
+
+    private void writeBook(JsonWriter json, Book book, boolean[] fields) throws IOException {
+        json.beginObject();
+        if (fields[0]) json.name("isbn").value(book.isbn);
+        if (fields[1]) json.name("title").value(book.title);
+        if (fields[2]) json.name("author").value(book.author);
+        if (fields[3]) json.name("category").value(book.category);
+        if (fields[4]) json.name("shelf").value(book.shelf);
+        if (fields[5]) json.name("status").value(library.statusOf(book));
+        json.endObject();
+    }
+
     private String bookToJson(Book book) {
         return String.format(
             "{\"isbn\":\"%s\",\"title\":\"%s\",\"author\":\"%s\",\"category\":\"%s\",\"shelf\":\"%s\",\"status\":\"%s\"}",
             book.isbn, book.title, book.author, book.category, book.shelf,
-            book.isAvailable() ? "Available" : "Borrowed"
+            library.statusOf(book)
         );
     }
 
+    private String hitsToJson(List<SearchIndex.Hit> hits) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < hits.size(); i++) {
+            if (i > 0) json.append(",");
+            SearchIndex.Hit hit = hits.get(i);
+            String book = bookToJson(hit.book);
+            json.append(book, 0, book.length() - 1)
+                .append(String.format(Locale.ROOT, ",\"score\":%.4f}", hit.score));
+        }
+        json.append("]");
+        return json.toString();
+    }
+
     private String userNamesToJson(Set<String> userNames) {
         StringBuilder json = new StringBuilder("[");
         int i = 0;
@@ -311,6 +841,52 @@ public class LibraryWebServer {
         return json.toString();
     }
 
+    // through JsonWriter: ISBNs and the start shelf come from the request, shelf names from the catalog
+    private String planToJson(RoutePlanner.Plan plan) {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(256);
+        try (JsonWriter json = new JsonWriter(buf)) {
+            json.beginObject()
+                .name("start").value(plan.start)
+                .name("totalDistance").value(plan.totalDistance)
+                .name("stops").beginArray();
+            for (RoutePlanner.Stop stop : plan.stops) {
+                json.beginObject()
+                    .name("shelf").value(stop.shelf)
+                    .name("distance").value(stop.legDistance)
+                    .name("isbns");
+                writeStrings(json, stop.isbns);
+                json.name("path");
+                writeStrings(json, stop.leg);
+                json.endObject();
+            }
+            json.endArray().name("unknown");
+            writeStrings(json, plan.unknownIsbns);
+            json.name("unreachable");
+            writeStrings(json, plan.unreachableIsbns);
+            json.endObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // in-memory: not expected
+        }
+        return new String(buf.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void writeStrings(JsonWriter json, List<String> values) throws IOException {
+        json.beginArray();
+        for (String v : values) json.value(v);
+        json.endArray();
+    }
+
+    /** {"error": message}, escaped: messages may quote request input */
+    private static String errorJson(String message) {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(64);
+        try (JsonWriter json = new JsonWriter(buf)) {
+            json.beginObject().name("error").value(message).endObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new String(buf.toByteArray(), StandardCharsets.UTF_8);
+    }
+
     private String pathToJson(LibraryGraph.Pair<Integer, List<String>> result) {
         if (result.first == Integer.MAX_VALUE) {
             return "{\"found\": false}";
@@ -0,0 +1,236 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HTTP load generator for a locally running LibraryWebServer.
+ *
+ * Samples real ISBNs, titles, shelves and users from the server first, then
+ * runs worker threads issuing a weighted mix of requests (search, paged book
+ * listing, recommendations, shelf paths, stats, borrow/return). Without a
+ * target rate each worker is closed-loop (next request when the last one
+ * answers). With --rate the workers follow a fixed schedule and latency is
+ * measured from each request's scheduled start, so a stalled server shows up
+ * in the percentiles instead of silently lowering the offered load.
+ *
+ * Usage: java LoadTestDriver [--url http://localhost:8080] [--threads 16]
+ *                            [--seconds 30] [--rate requests/s] [--warmup seconds]
+ */
+public class LoadTestDriver {
+    private final String base;
+    private final HttpClient client;
+    private final Map<String, LatencyHistogram> latency = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+    private final LongAdder rejected = new LongAdder();
+
+    private List<String> isbns = new ArrayList<>(), titles = new ArrayList<>();
+    private List<String> shelves = new ArrayList<>(), users = new ArrayList<>();
+
+    // endpoint mix as weights out of 100
+    private static final String[] OPS = {"search", "books", "recommend", "path", "stats", "borrow"};
+    private static final int[] WEIGHTS = {45, 15, 10, 10, 5, 15};
+
+    LoadTestDriver(String base, int threads) {
+        this.base = base.endsWith("/") ? base.substring(0, base.length() - 1) : base;
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(Executors.newFixedThreadPool(Math.max(2, threads / 4)))
+                .build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        String url = "http://localhost:8080";
+        int threads = 16, seconds = 30, warmup = 5;
+        double rate = 0;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--url": url = args[i + 1]; break;
+                case "--threads": threads = Integer.parseInt(args[i + 1]); break;
+                case "--seconds": seconds = Integer.parseInt(args[i + 1]); break;
+                case "--rate": rate = Double.parseDouble(args[i + 1]); break;
+                case "--warmup": warmup = Integer.parseInt(args[i + 1]); break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+        LoadTestDriver driver = new LoadTestDriver(url, threads);
+        driver.sample();
+        System.out.printf("Target %s: %d threads, %s, %d s (+%d s warm-up)%n", url, threads,
+                rate > 0 ? String.format("%.0f req/s scheduled", rate) : "closed loop", seconds, warmup);
+        if (warmup > 0) {
+            driver.run(threads, warmup, rate);
+            driver.reset();
+        }
+        long elapsed = driver.run(threads, seconds, rate);
+        driver.report(elapsed);
+        System.exit(0);
+    }
+
+    // ====== Setup ======
+    /** Pick request parameters from the server's own catalog so lookups hit real data */
+    @SuppressWarnings("unchecked")
+    void sample() throws IOException, InterruptedException {
+        HttpResponse<String> books = get("/api/books?limit=1000&fields=isbn,title,shelf");
+        for (Object o : (List<Object>) JsonReader.parse(books.body())) {
+            Map<String, Object> b = (Map<String, Object>) o;
+            isbns.add(JsonReader.string(b, "isbn"));
+            titles.add(JsonReader.string(b, "title"));
+            String shelf = JsonReader.string(b, "shelf");
+            if (shelf != null && !shelf.isEmpty() && !shelves.contains(shelf)) shelves.add(shelf);
+        }
+        for (Object o : (List<Object>) JsonReader.parse(get("/api/users").body())) {
+            users.add(JsonReader.string((Map<String, Object>) o, "name"));
+        }
+        if (isbns.isEmpty() || users.isEmpty()) throw new IllegalStateException("Server has no books or no users to load-test with");
+        System.out.printf("Sampled %d books, %d shelves, %d users%n", isbns.size(), shelves.size(), users.size());
+    }
+
+    void reset() {
+        latency.clear();
+        errors.clear();
+        rejected.reset();
+    }
+
+    // ====== Load ======
+    /** Run the mix for the given time; returns the measured wall time in nanoseconds */
+    long run(int threads, int seconds, double rate) throws InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + seconds * 1_000_000_000L;
+        // each worker owns every threads-th slot of the global schedule
+        long interval = rate > 0 ? (long) (threads * 1e9 / rate) : 0;
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            long first = start + (rate > 0 ? (long) (t * 1e9 / rate) : 0);
+            workers[t] = new Thread(() -> work(first, interval, deadline), "load-" + t);
+            workers[t].start();
+        }
+        for (Thread w : workers) w.join();
+        return System.nanoTime() - start;
+    }
+
+    private void work(long first, long interval, long deadline) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        List<String> borrowed = new ArrayList<>();
+        long scheduled = first;
+        while (true) {
+            long now = System.nanoTime();
+            if (interval > 0) {
+                if (scheduled >= deadline) return;
+                if (scheduled > now) {
+                    sleepUntil(scheduled);
+                }
+            } else if (now >= deadline) {
+                return;
+            }
+            long t0 = interval > 0 ? scheduled : System.nanoTime();
+            String op = pick(rnd);
+            try {
+                int status = issue(op, rnd, borrowed);
+                if (status == 503) rejected.increment();
+                else if (status >= 400) errors.computeIfAbsent(op, k -> new LongAdder()).increment();
+            } catch (IOException e) {
+                errors.computeIfAbsent(op, k -> new LongAdder()).increment();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            latency.computeIfAbsent(op, k -> new LatencyHistogram()).recordSince(t0);
+            scheduled += interval;
+        }
+    }
+
+    private int issue(String op, ThreadLocalRandom rnd, List<String> borrowed) throws IOException, InterruptedException {
+        switch (op) {
+            case "search":
+                return get("/api/search?q=" + enc(titles.get(rnd.nextInt(titles.size())))).statusCode();
+            case "books":
+                return get("/api/books?limit=50&after=" + enc(isbns.get(rnd.nextInt(isbns.size())))).statusCode();
+            case "recommend":
+                return get("/api/recommend?user=" + enc(users.get(rnd.nextInt(users.size())))).statusCode();
+            case "path":
+                if (shelves.size() < 2) return get("/api/stats").statusCode();
+                return get("/api/path?from=" + enc(shelves.get(rnd.nextInt(shelves.size())))
+                        + "&to=" + enc(shelves.get(rnd.nextInt(shelves.size())))).statusCode();
+            case "stats":
+                return get("/api/stats").statusCode();
+            default:
+                // alternate borrowing a random book and returning one this worker took
+                if (!borrowed.isEmpty() && rnd.nextBoolean()) {
+                    String isbn = borrowed.remove(borrowed.size() - 1);
+                    return post("/api/return", "{\"isbn\":\"" + isbn + "\"}").statusCode();
+                }
+                String isbn = isbns.get(rnd.nextInt(isbns.size()));
+                String user = users.get(rnd.nextInt(users.size()));
+                HttpResponse<String> r = post("/api/borrow", "{\"userName\":\"" + user + "\",\"isbn\":\"" + isbn + "\"}");
+                if (r.statusCode() == 200 && r.body().contains("SUCCESS")) borrowed.add(isbn);
+                return r.statusCode();
+        }
+    }
+
+    private static String pick(ThreadLocalRandom rnd) {
+        int roll = rnd.nextInt(100);
+        for (int i = 0; i < OPS.length; i++) {
+            roll -= WEIGHTS[i];
+            if (roll < 0) return OPS[i];
+        }
+        return OPS[0];
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest req = HttpRequest.newBuilder(URI.create(base + path)).timeout(Duration.ofSeconds(30)).GET().build();
+        return client.send(req, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> post(String path, String json) throws IOException, InterruptedException {
+        HttpRequest req = HttpRequest.newBuilder(URI.create(base + path)).timeout(Duration.ofSeconds(30))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json)).build();
+        return client.send(req, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static String enc(String s) {
+        return URLEncoder.encode(s, StandardCharsets.UTF_8);
+    }
+
+    private static void sleepUntil(long nanoTime) {
+        long wait;
+        while ((wait = nanoTime - System.nanoTime()) > 0) {
+            try {
+                Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // ====== Report ======
+    void report(long elapsedNanos) {
+        double secs = elapsedNanos / 1e9;
+        long total = 0;
+        System.out.printf("%-10s %9s %9s %10s %10s %10s %10s %7s%n",
+                "endpoint", "requests", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "errors");
+        for (String op : OPS) {
+            LatencyHistogram h = latency.get(op);
+            if (h == null) continue;
+            long n = h.count();
+            total += n;
+            LongAdder err = errors.get(op);
+            System.out.printf("%-10s %9d %9.0f %10.2f %10.2f %10.2f %10.2f %7d%n", op, n, n / secs,
+                    h.percentile(0.5) / 1e6, h.percentile(0.9) / 1e6, h.percentile(0.99) / 1e6,
+                    h.percentile(0.999) / 1e6, err == null ? 0 : err.sum());
+        }
+        System.out.printf("total      %9d %9.0f req/s over %.1f s, %d rejected with 503%n", total, total / secs, secs, rejected.sum());
+    }
+}
@@ -16,12 +16,18 @@ public class Main {
         } else {
             System.out.println("Loaded saved library state.");
         }
+        try {
+            lib.openJournal();
+        } catch (IOException e) {
+            System.err.println("Journal unavailable, changes are only saved on exit: " + e.getMessage());
+        }
 
         loopMenu();
 
         // on exit save
         try {
             lib.saveState();
+            lib.closeJournal();
             System.out.println("Library state saved.");
         } catch (IOException e) {
             System.err.println("Error saving state: " + e.getMessage());
@@ -43,6 +49,7 @@ public class Main {
             System.out.println("0. Exit");
             System.out.print("Choose: ");
             String opt = sc.nextLine().trim();
+            lib.expireHolds(); // no background thread here: catch up on lapsed pickups per command
             switch (opt) {
                 case "1": lib.displayAllBooks(); break;
                 case "2": lib.displayAvailableBooks(); break;
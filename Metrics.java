@@ -0,0 +1,102 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+import com.sun.net.httpserver.*;
+
+/**
+ * Process-wide registry of latency histograms and gauges, exported in the
+ * Prometheus text format at /api/metrics. Histograms are grouped in families
+ * with one label (endpoint, operation or lock path); callers on hot paths keep
+ * the LatencyHistogram they got at startup, so recording is a lookup-free,
+ * allocation-free call.
+ */
+public final class Metrics {
+    public static final Family HTTP = new Family("library_http_request_duration_seconds",
+            "Time spent in each HTTP endpoint's handler", "endpoint");
+    public static final Family OPERATIONS = new Family("library_operation_duration_seconds",
+            "Time spent in Library and LibraryGraph operations", "op");
+    public static final Family LOCK_WAIT = new Family("library_lock_wait_seconds",
+            "Time waiting for the per-book lock stripe (and checkpoint read lock)", "path");
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final List<Family> FAMILIES = Arrays.asList(HTTP, OPERATIONS, LOCK_WAIT);
+    private static final Map<String, Gauge> GAUGES = new ConcurrentSkipListMap<>();
+
+    private Metrics() {}
+
+    /** Histograms sharing a metric name, one per label value */
+    public static final class Family {
+        final String name, help, label;
+        private final Map<String, LatencyHistogram> byLabel = new ConcurrentSkipListMap<>();
+
+        Family(String name, String help, String label) {
+            this.name = name;
+            this.help = help;
+            this.label = label;
+        }
+
+        public LatencyHistogram get(String labelValue) {
+            LatencyHistogram h = byLabel.get(labelValue);
+            return h != null ? h : byLabel.computeIfAbsent(labelValue, k -> new LatencyHistogram());
+        }
+    }
+
+    private static final class Gauge {
+        final String help;
+        final LongSupplier value;
+
+        Gauge(String help, LongSupplier value) {
+            this.help = help;
+            this.value = value;
+        }
+    }
+
+    /** Register (or replace) a gauge read at export time */
+    public static void gauge(String name, String help, LongSupplier value) {
+        GAUGES.put(name, new Gauge(help, value));
+    }
+
+    /** Handler wrapper recording each exchange's handling time under HTTP{endpoint} */
+    public static HttpHandler timed(String endpoint, HttpHandler handler) {
+        LatencyHistogram h = HTTP.get(endpoint);
+        return exchange -> {
+            long t0 = System.nanoTime();
+            try {
+                handler.handle(exchange);
+            } finally {
+                h.recordSince(t0);
+            }
+        };
+    }
+
+    public static void writePrometheus(Writer out) throws IOException {
+        for (Family f : FAMILIES) {
+            out.write("# HELP " + f.name + " " + f.help + "\n");
+            out.write("# TYPE " + f.name + " summary\n");
+            for (Map.Entry<String, LatencyHistogram> e : f.byLabel.entrySet()) {
+                String label = f.label + "=\"" + escape(e.getKey()) + "\"";
+                LatencyHistogram h = e.getValue();
+                for (double q : QUANTILES) {
+                    out.write(f.name + "{" + label + ",quantile=\"" + q + "\"} " + seconds(h.percentile(q)) + "\n");
+                }
+                out.write(f.name + "_sum{" + label + "} " + seconds(h.sumNanos()) + "\n");
+                out.write(f.name + "_count{" + label + "} " + h.count() + "\n");
+            }
+        }
+        for (Map.Entry<String, Gauge> e : GAUGES.entrySet()) {
+            out.write("# HELP " + e.getKey() + " " + e.getValue().help + "\n");
+            out.write("# TYPE " + e.getKey() + " gauge\n");
+            out.write(e.getKey() + " " + e.getValue().value.getAsLong() + "\n");
+        }
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
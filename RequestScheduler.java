@@ -0,0 +1,203 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import com.sun.net.httpserver.*;
+
+/**
+ * Decides which threads run LibraryWebServer's handlers. Selected with
+ * -Dlibrary.server.mode:
+ *
+ *   pooled  (default) a small I/O pool reads each request and hands it to the
+ *           bounded pool of its endpoint class, so slow recommend or listing
+ *           requests cannot starve cheap reads. A full pool answers 503 with
+ *           Retry-After instead of queueing without limit.
+ *   virtual one virtual thread per exchange (JDK 21+; falls back to pooled on
+ *           older runtimes, looked up reflectively so the code builds on 17).
+ *   fixed   the original single pool of ten threads.
+ *
+ * Pool sizes are overridable as -Dlibrary.pool.<name>=threads:queue.
+ */
+public class RequestScheduler {
+    public enum Mode { POOLED, VIRTUAL, FIXED }
+
+    public static final String READ = "read", HEAVY = "heavy", WRITE = "write", STATIC = "static";
+    private static final int IO_THREADS = Integer.getInteger("library.server.ioThreads", 16);
+
+    private final Mode mode;
+    private final ExecutorService serverExecutor;
+    private final Map<String, Pool> pools = new LinkedHashMap<>();
+
+    /** Bounded pool for one endpoint class with rejection and queueing metrics */
+    static final class Pool {
+        final String name;
+        final int queueCapacity;
+        final ThreadPoolExecutor executor;
+        final LongAdder submitted = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+        final LongAdder queueWaitNanos = new LongAdder();
+        final AtomicInteger peakQueued = new AtomicInteger();
+
+        Pool(String name, int threads, int queueCapacity) {
+            this.name = name;
+            this.queueCapacity = queueCapacity;
+            AtomicInteger n = new AtomicInteger();
+            executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity), r -> {
+                        Thread t = new Thread(r, "http-" + name + "-" + n.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }, new ThreadPoolExecutor.AbortPolicy());
+        }
+
+        /** Run the task on this pool; false if the pool and its queue are full */
+        boolean submit(Runnable task) {
+            long enqueued = System.nanoTime();
+            try {
+                executor.execute(() -> {
+                    queueWaitNanos.add(System.nanoTime() - enqueued);
+                    task.run();
+                });
+            } catch (RejectedExecutionException e) {
+                rejected.increment();
+                return false;
+            }
+            submitted.increment();
+            peakQueued.accumulateAndGet(executor.getQueue().size(), Math::max);
+            return true;
+        }
+    }
+
+    public RequestScheduler(Mode requested) {
+        ExecutorService virtual = requested == Mode.VIRTUAL ? newVirtualExecutor() : null;
+        if (requested == Mode.VIRTUAL && virtual == null) {
+            System.err.println("⚠️ Virtual threads need JDK 21+, using pooled execution");
+            requested = Mode.POOLED;
+        }
+        mode = requested;
+        switch (mode) {
+            case VIRTUAL:
+                serverExecutor = virtual;
+                break;
+            case FIXED:
+                serverExecutor = Executors.newFixedThreadPool(10);
+                break;
+            default:
+                // I/O threads only parse the request and hand it off, so a few suffice
+                serverExecutor = Executors.newFixedThreadPool(IO_THREADS, daemonFactory("http-io"));
+                addPool(READ, 8, 256);
+                addPool(HEAVY, 4, 32);
+                addPool(WRITE, 4, 128);
+                addPool(STATIC, 2, 64);
+        }
+    }
+
+    public static RequestScheduler fromSystemProperties() {
+        String value = System.getProperty("library.server.mode", "pooled");
+        try {
+            return new RequestScheduler(Mode.valueOf(value.trim().toUpperCase(Locale.ROOT)));
+        } catch (IllegalArgumentException e) {
+            System.err.println("⚠️ Unknown library.server.mode '" + value + "', using pooled");
+            return new RequestScheduler(Mode.POOLED);
+        }
+    }
+
+    private void addPool(String name, int threads, int queue) {
+        String override = System.getProperty("library.pool." + name);
+        if (override != null) {
+            try {
+                String[] parts = override.split(":");
+                threads = Integer.parseInt(parts[0].trim());
+                if (parts.length > 1) queue = Integer.parseInt(parts[1].trim());
+            } catch (NumberFormatException e) {
+                System.err.println("⚠️ Ignoring bad library.pool." + name + "=" + override);
+            }
+        }
+        pools.put(name, new Pool(name, Math.max(1, threads), Math.max(1, queue)));
+    }
+
+    private static ExecutorService newVirtualExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory daemonFactory(String prefix) {
+        AtomicInteger n = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + "-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    public Mode mode() {
+        return mode;
+    }
+
+    /** Executor for HttpServer.setExecutor */
+    public Executor serverExecutor() {
+        return serverExecutor;
+    }
+
+    /** Run handler on the pool of its endpoint class (inline in virtual and fixed modes) */
+    public HttpHandler wrap(String poolName, HttpHandler handler) {
+        Pool pool = pools.get(poolName);
+        if (pool == null) return handler;
+        return exchange -> {
+            if (!pool.submit(() -> handleQuietly(handler, exchange))) reject(exchange, pool);
+        };
+    }
+
+    private static void handleQuietly(HttpHandler handler, HttpExchange exchange) {
+        try {
+            handler.handle(exchange);
+        } catch (IOException | RuntimeException e) {
+            // on the I/O thread the server would log and drop the connection; do the same here
+            System.err.println("❌ " + exchange.getRequestURI() + ": " + e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void reject(HttpExchange exchange, Pool pool) throws IOException {
+        byte[] body = ("{\"error\": \"Server busy\", \"pool\": \"" + pool.name + "\"}").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        exchange.sendResponseHeaders(503, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    /** Mode and per-pool saturation counters as a JSON object */
+    public void writeMetrics(JsonWriter json) throws IOException {
+        json.beginObject().name("mode").value(mode.name().toLowerCase(Locale.ROOT));
+        json.name("pools").beginArray();
+        for (Pool p : pools.values()) {
+            long started = p.executor.getCompletedTaskCount() + p.executor.getActiveCount();
+            json.beginObject()
+                .name("name").value(p.name)
+                .name("threads").value(p.executor.getMaximumPoolSize())
+                .name("active").value(p.executor.getActiveCount())
+                .name("queued").value(p.executor.getQueue().size())
+                .name("queueCapacity").value(p.queueCapacity)
+                .name("peakQueued").value(p.peakQueued.get())
+                .name("submitted").value(p.submitted.sum())
+                .name("completed").value(p.executor.getCompletedTaskCount())
+                .name("rejected").value(p.rejected.sum())
+                .name("avgQueueWaitMicros").value(started == 0 ? 0 : p.queueWaitNanos.sum() / started / 1000)
+                .endObject();
+        }
+        json.endArray().endObject();
+    }
+
+    public void shutdown() {
+        serverExecutor.shutdown();
+        for (Pool p : pools.values()) p.executor.shutdown();
+    }
+}
@@ -0,0 +1,220 @@
+import java.io.*;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+import com.sun.net.httpserver.*;
+
+/**
+ * Size-bounded LRU cache of GET responses from read endpoints, installed as an
+ * HttpContext filter. Entries are keyed by request path plus the query parameters
+ * sorted by name, so "?b=1&a=2" and "?a=2&b=1" share one entry. Each entry
+ * remembers the version of the state it was computed from (one of Library's
+ * counters, or LibraryGraph.version()); a lookup under a newer version drops
+ * it, so a mutation invalidates only the answers that depend on what it changed.
+ * Each endpoint picks the narrowest counter covering what its responses show,
+ * and may derive it from the request (e.g. one user's history).
+ *
+ * Hits are answered by the filter on the I/O thread and never reach the
+ * endpoint's pool. Misses run the handler with its response body teed into a
+ * buffer that becomes the entry when the handler closes the body.
+ */
+public class ResponseCache {
+    private static final long MAX_BYTES = Long.getLong("library.cache.maxBytes", 16L << 20);
+    private static final int MAX_ENTRY_BYTES = (int) Math.min(Integer.MAX_VALUE, MAX_BYTES / 16);
+    // response headers worth replaying from a cached entry
+    private static final String[] KEPT_HEADERS = {"Content-Type", "X-Next-After", "Access-Control-Expose-Headers"};
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long bytes;
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder(), invalidations = new LongAdder();
+
+    private static final class Entry {
+        final long version;
+        final byte[] body;
+        final String[] headers; // values for KEPT_HEADERS, null where absent
+
+        Entry(long version, byte[] body, String[] headers) {
+            this.version = version;
+            this.body = body;
+            this.headers = headers;
+        }
+    }
+
+    /**
+     * Filter caching this context's GET responses against the given state version.
+     * Hits never reach the timed handler, so their serving time goes to hitLatency.
+     */
+    public Filter filter(LongSupplier version, LatencyHistogram hitLatency) {
+        return filter(exchange -> version.getAsLong(), hitLatency);
+    }
+
+    /** As above, with a version that depends on the request */
+    public Filter filter(ToLongFunction<HttpExchange> version, LatencyHistogram hitLatency) {
+        return new Filter() {
+            @Override
+            public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+                if (!"GET".equals(exchange.getRequestMethod())) {
+                    chain.doFilter(exchange);
+                    return;
+                }
+                long t0 = System.nanoTime();
+                String key = key(exchange);
+                long current = version.applyAsLong(exchange);
+                Entry e = lookup(key, current);
+                if (e != null) {
+                    try {
+                        replay(exchange, e);
+                    } finally {
+                        hitLatency.recordSince(t0);
+                    }
+                    return;
+                }
+                exchange.getResponseHeaders().set("X-Cache", "MISS");
+                exchange.setStreams(null, new CapturingStream(exchange, key, current));
+                chain.doFilter(exchange);
+            }
+
+            @Override
+            public String description() {
+                return "response cache";
+            }
+        };
+    }
+
+    static String key(HttpExchange exchange) {
+        TreeMap<String, String> params = new TreeMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq <= 0 || eq == pair.length() - 1) continue;
+                params.put(decode(pair.substring(0, eq)), decode(pair.substring(eq + 1)));
+            }
+        }
+        // the request path, not the context path: /api/categories/A and /api/categories/B differ
+        StringBuilder key = new StringBuilder(exchange.getRequestURI().getRawPath());
+        params.forEach((k, v) -> key.append('\n').append(k).append('=').append(v));
+        return key.toString();
+    }
+
+    private static String decode(String s) {
+        try {
+            return URLDecoder.decode(s, "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            return s;
+        }
+    }
+
+    private synchronized Entry lookup(String key, long version) {
+        Entry e = entries.get(key);
+        if (e != null && e.version != version) {
+            entries.remove(key);
+            bytes -= e.body.length;
+            invalidations.increment();
+            e = null;
+        }
+        if (e == null) misses.increment();
+        else hits.increment();
+        return e;
+    }
+
+    private synchronized void store(String key, Entry e) {
+        Entry old = entries.put(key, e);
+        if (old != null) bytes -= old.body.length;
+        bytes += e.body.length;
+        Iterator<Entry> it = entries.values().iterator();
+        while (bytes > MAX_BYTES && it.hasNext()) {
+            Entry eldest = it.next();
+            it.remove();
+            bytes -= eldest.body.length;
+            evictions.increment();
+        }
+    }
+
+    private static void replay(HttpExchange exchange, Entry e) throws IOException {
+        Headers h = exchange.getResponseHeaders();
+        for (int i = 0; i < KEPT_HEADERS.length; i++) {
+            if (e.headers[i] != null) h.set(KEPT_HEADERS[i], e.headers[i]);
+        }
+        h.set("Access-Control-Allow-Origin", "*");
+        h.set("X-Cache", "HIT");
+        exchange.sendResponseHeaders(200, e.body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(e.body);
+        }
+    }
+
+    /** Tees the handler's response into a buffer and stores it on close if it was a cacheable 200 */
+    private final class CapturingStream extends FilterOutputStream {
+        private final HttpExchange exchange;
+        private final String key;
+        private final long version;
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream(1024);
+        private boolean closed;
+
+        CapturingStream(HttpExchange exchange, String key, long version) {
+            super(exchange.getResponseBody());
+            this.exchange = exchange;
+            this.key = key;
+            this.version = version;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            if (copy != null) {
+                copy.write(b);
+                if (copy.size() > MAX_ENTRY_BYTES) copy = null;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (copy != null) {
+                copy.write(b, off, len);
+                if (copy.size() > MAX_ENTRY_BYTES) copy = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            super.close();
+            if (copy == null || exchange.getResponseCode() != 200) return;
+            Headers h = exchange.getResponseHeaders();
+            String[] kept = new String[KEPT_HEADERS.length];
+            for (int i = 0; i < kept.length; i++) kept[i] = h.getFirst(KEPT_HEADERS[i]);
+            store(key, new Entry(version, copy.toByteArray(), kept));
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /** Hit/miss/eviction counters and current size as a JSON object */
+    public void writeMetrics(JsonWriter json) throws IOException {
+        int count;
+        long size;
+        synchronized (this) {
+            count = entries.size();
+            size = bytes;
+        }
+        json.beginObject()
+            .name("entries").value(count)
+            .name("bytes").value(size)
+            .name("maxBytes").value(MAX_BYTES)
+            .name("hits").value(hits.sum())
+            .name("misses").value(misses.sum())
+            .name("evictions").value(evictions.sum())
+            .name("invalidations").value(invalidations.sum())
+            .endObject();
+    }
+}
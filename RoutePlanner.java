@@ -0,0 +1,190 @@
+import java.util.*;
+
+/**
+ * Plans a shelf-retrieval run: from a start shelf, visit every shelf holding a
+ * requested book in a short order. Distances between stops come from the
+ * ShelfRouter's cached shortest-path trees. Up to EXACT_MAX_STOPS stops are
+ * ordered exactly by Held-Karp dynamic programming over subsets; larger runs
+ * start from a nearest-neighbour tour improved by 2-opt until no reversal helps.
+ * The run ends at the last stop (open path), since staff drop off at the desk
+ * by whichever way is shortest from there.
+ */
+public final class RoutePlanner {
+    static final int EXACT_MAX_STOPS = 12;
+    private static final int MAX_TWO_OPT_PASSES = 50;
+
+    private RoutePlanner() {}
+
+    /** One shelf on the run with the books to pull there and the walk from the previous stop */
+    public static final class Stop {
+        public final String shelf;
+        public final List<String> isbns;
+        public final int legDistance;
+        public final List<String> leg;
+
+        Stop(String shelf, List<String> isbns, int legDistance, List<String> leg) {
+            this.shelf = shelf;
+            this.isbns = isbns;
+            this.legDistance = legDistance;
+            this.leg = leg;
+        }
+    }
+
+    public static final class Plan {
+        public final String start;
+        public final long totalDistance;
+        public final List<Stop> stops;
+        public final List<String> unknownIsbns;      // no such book
+        public final List<String> unreachableIsbns;  // shelf missing from the layout or cut off from start
+
+        Plan(String start, long totalDistance, List<Stop> stops, List<String> unknownIsbns, List<String> unreachableIsbns) {
+            this.start = start;
+            this.totalDistance = totalDistance;
+            this.stops = stops;
+            this.unknownIsbns = unknownIsbns;
+            this.unreachableIsbns = unreachableIsbns;
+        }
+    }
+
+    /**
+     * Plan a run from startShelf picking the given books. Books on the same
+     * shelf share one stop; duplicate ISBNs are picked once.
+     */
+    public static Plan plan(LibraryGraph graph, String startShelf, Collection<String> isbns, Map<String, Book> books) {
+        ShelfRouter router = graph.router();
+        int start = router.id(startShelf);
+        if (start < 0) throw new IllegalArgumentException("Unknown shelf: " + startShelf);
+        ShelfRouter.Tree fromStart = router.tree(start);
+
+        Map<Integer, List<String>> byShelf = new LinkedHashMap<>();
+        List<String> unknown = new ArrayList<>(), unreachable = new ArrayList<>();
+        for (String isbn : new LinkedHashSet<>(isbns)) {
+            Book b = books.get(isbn);
+            if (b == null) {
+                unknown.add(isbn);
+                continue;
+            }
+            int shelf = router.id(b.shelf);
+            if (shelf < 0 || fromStart.dist[shelf] == ShelfRouter.INF) {
+                unreachable.add(isbn);
+                continue;
+            }
+            byShelf.computeIfAbsent(shelf, s -> new ArrayList<>()).add(isbn);
+        }
+
+        // node 0 is the start; nodes 1..m are the distinct stop shelves
+        int[] nodes = new int[byShelf.size() + 1];
+        nodes[0] = start;
+        int next = 1;
+        for (int shelf : byShelf.keySet()) nodes[next++] = shelf;
+        long[][] dist = distanceMatrix(router, nodes);
+        int[] order = nodes.length - 1 <= EXACT_MAX_STOPS ? heldKarp(dist) : twoOpt(dist, nearestNeighbour(dist));
+
+        List<Stop> stops = new ArrayList<>(order.length - 1);
+        long total = 0;
+        for (int i = 1; i < order.length; i++) {
+            int from = nodes[order[i - 1]], to = nodes[order[i]];
+            int leg = router.distance(from, to);
+            total += leg;
+            stops.add(new Stop(router.name(to), byShelf.get(to), leg, router.path(from, to)));
+        }
+        return new Plan(startShelf, total, stops, unknown, unreachable);
+    }
+
+    private static long[][] distanceMatrix(ShelfRouter router, int[] nodes) {
+        int n = nodes.length;
+        long[][] dist = new long[n][n];
+        for (int i = 0; i < n; i++) {
+            int[] row = router.tree(nodes[i]).dist;
+            for (int j = 0; j < n; j++) dist[i][j] = row[nodes[j]];
+        }
+        return dist;
+    }
+
+    // ====== Exact: Held-Karp over subsets of stops ======
+    /** Optimal open path from node 0 through every other node; O(2^m * m^2) for m stops */
+    static int[] heldKarp(long[][] dist) {
+        int m = dist.length - 1;
+        if (m == 0) return new int[]{0};
+        int full = (1 << m) - 1;
+        // best[mask][j]: shortest path from the start covering stops in mask and ending at stop j
+        long[][] best = new long[full + 1][m];
+        int[][] prev = new int[full + 1][m];
+        for (long[] row : best) Arrays.fill(row, Long.MAX_VALUE);
+        for (int j = 0; j < m; j++) {
+            best[1 << j][j] = dist[0][j + 1];
+            prev[1 << j][j] = -1;
+        }
+        for (int mask = 1; mask <= full; mask++) {
+            for (int j = 0; j < m; j++) {
+                long cur = best[mask][j];
+                if (cur == Long.MAX_VALUE) continue;
+                for (int k = 0; k < m; k++) {
+                    if ((mask & (1 << k)) != 0) continue;
+                    int nextMask = mask | (1 << k);
+                    long cand = cur + dist[j + 1][k + 1];
+                    if (cand < best[nextMask][k]) {
+                        best[nextMask][k] = cand;
+                        prev[nextMask][k] = j;
+                    }
+                }
+            }
+        }
+        int last = 0;
+        for (int j = 1; j < m; j++) if (best[full][j] < best[full][last]) last = j;
+        int[] order = new int[m + 1];
+        for (int mask = full, j = last, i = m; j != -1; i--) {
+            order[i] = j + 1;
+            int p = prev[mask][j];
+            mask &= ~(1 << j);
+            j = p;
+        }
+        return order;
+    }
+
+    // ====== Heuristic: nearest neighbour + 2-opt ======
+    static int[] nearestNeighbour(long[][] dist) {
+        int n = dist.length;
+        int[] order = new int[n];
+        boolean[] used = new boolean[n];
+        used[0] = true;
+        for (int i = 1; i < n; i++) {
+            int cur = order[i - 1], pick = -1;
+            for (int j = 1; j < n; j++) {
+                if (!used[j] && (pick < 0 || dist[cur][j] < dist[cur][pick])) pick = j;
+            }
+            order[i] = pick;
+            used[pick] = true;
+        }
+        return order;
+    }
+
+    /** Reverse segments of the open path while that shortens it; order[0] stays the start */
+    static int[] twoOpt(long[][] dist, int[] order) {
+        int n = order.length;
+        boolean improved = true;
+        for (int pass = 0; improved && pass < MAX_TWO_OPT_PASSES; pass++) {
+            improved = false;
+            for (int i = 1; i < n - 1; i++) {
+                for (int j = i + 1; j < n; j++) {
+                    int a = order[i - 1], b = order[i], c = order[j];
+                    long before = dist[a][b], after = dist[a][c];
+                    if (j + 1 < n) {
+                        int d = order[j + 1];
+                        before += dist[c][d];
+                        after += dist[b][d];
+                    }
+                    if (after < before) {
+                        for (int lo = i, hi = j; lo < hi; lo++, hi--) {
+                            int t = order[lo];
+                            order[lo] = order[hi];
+                            order[hi] = t;
+                        }
+                        improved = true;
+                    }
+                }
+            }
+        }
+        return order;
+    }
+}
@@ -0,0 +1,244 @@
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+
+/**
+ * In-memory inverted index over title, author and category with BM25 ranking.
+ * Field matches are weighted (title > author > category) into a single term
+ * frequency per document. The last query token also matches as a prefix so
+ * partially typed words still hit. Updated incrementally by Library.addBook.
+ * Removed documents are tombstoned; a term's postings are compacted once most
+ * of them are dead, and document frequencies count live documents only.
+ */
+public class SearchIndex {
+    private static final int TITLE_WEIGHT = 3, AUTHOR_WEIGHT = 2, CATEGORY_WEIGHT = 1;
+    private static final double K1 = 1.2, B = 0.75;
+    private static final int MAX_PREFIX_EXPANSION = 64;
+
+    private final TreeMap<String, Postings> terms = new TreeMap<>();
+    private final Map<Book, Integer> docIds = new IdentityHashMap<>();
+    private final List<Book> docs = new ArrayList<>(); // docId -> Book, null once removed
+    private int[] docLen = new int[16];
+    private int liveDocs = 0;
+    private long totalLen = 0;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** Postings list: parallel growable arrays of docId and weighted term frequency */
+    private static final class Postings {
+        int[] ids = new int[4];
+        int[] tfs = new int[4];
+        int size;
+        int live; // entries whose document is not tombstoned: the term's document frequency
+
+        void add(int id, int tf) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                tfs = Arrays.copyOf(tfs, size * 2);
+            }
+            ids[size] = id;
+            tfs[size] = tf;
+            size++;
+            live++;
+        }
+
+        /** Drop the entries of tombstoned documents, shrinking the arrays if mostly empty */
+        void compact(List<Book> docs) {
+            int n = 0;
+            for (int i = 0; i < size; i++) {
+                if (docs.get(ids[i]) == null) continue;
+                ids[n] = ids[i];
+                tfs[n] = tfs[i];
+                n++;
+            }
+            size = n;
+            if (n * 4 < ids.length && ids.length > 4) {
+                ids = Arrays.copyOf(ids, Math.max(4, n * 2));
+                tfs = Arrays.copyOf(tfs, ids.length);
+            }
+        }
+    }
+
+    public static class Hit {
+        public final Book book;
+        public final double score;
+
+        Hit(Book book, double score) {
+            this.book = book;
+            this.score = score;
+        }
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> out = new ArrayList<>();
+        if (text == null) return out;
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (word && start < 0) start = i;
+            else if (!word && start >= 0) {
+                out.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return out;
+    }
+
+    public void add(Book b) {
+        Map<String, Integer> tf = new HashMap<>();
+        int len = termFrequencies(b, tf);
+
+        lock.writeLock().lock();
+        try {
+            if (docIds.containsKey(b)) return;
+            int id = docs.size();
+            docs.add(b);
+            docIds.put(b, id);
+            if (id == docLen.length) docLen = Arrays.copyOf(docLen, id * 2);
+            docLen[id] = len;
+            liveDocs++;
+            totalLen += len;
+            for (Map.Entry<String, Integer> e : tf.entrySet()) {
+                terms.computeIfAbsent(e.getKey(), k -> new Postings()).add(id, e.getValue());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Index many books at once: documents are tokenized in parallel, then the
+     * postings are laid out in one pass and the term dictionary is sorted once.
+     */
+    static SearchIndex build(Collection<Book> books) {
+        Book[] all = books.toArray(new Book[0]);
+        String[][] docTerms = new String[all.length][];
+        int[][] docTfs = new int[all.length][];
+        int[] lens = new int[all.length];
+        IntStream.range(0, all.length).parallel().forEach(i -> {
+            Book b = all[i];
+            Map<String, Integer> tf = new HashMap<>();
+            lens[i] = termFrequencies(b, tf);
+            docTerms[i] = tf.keySet().toArray(new String[0]);
+            docTfs[i] = new int[docTerms[i].length];
+            for (int t = 0; t < docTerms[i].length; t++) docTfs[i][t] = tf.get(docTerms[i][t]);
+        });
+
+        SearchIndex idx = new SearchIndex();
+        Map<String, Postings> postings = new HashMap<>();
+        idx.docLen = new int[Math.max(16, all.length)];
+        for (int i = 0; i < all.length; i++) {
+            if (idx.docIds.putIfAbsent(all[i], idx.docs.size()) != null) continue;
+            int id = idx.docs.size();
+            idx.docs.add(all[i]);
+            idx.docLen[id] = lens[i];
+            idx.liveDocs++;
+            idx.totalLen += lens[i];
+            for (int t = 0; t < docTerms[i].length; t++) {
+                postings.computeIfAbsent(docTerms[i][t], k -> new Postings()).add(id, docTfs[i][t]);
+            }
+        }
+        idx.terms.putAll(new TreeMap<>(postings));
+        return idx;
+    }
+
+    /**
+     * Tombstones the document; its postings are skipped at query time until more
+     * than half of a term's entries are dead, when that term's list is compacted
+     * (amortized O(1) per removed posting). A term left with no live document
+     * leaves the dictionary, so prefix expansion does not count it either.
+     */
+    public void remove(Book b) {
+        Map<String, Integer> tf = new HashMap<>();
+        termFrequencies(b, tf);
+
+        lock.writeLock().lock();
+        try {
+            Integer id = docIds.remove(b);
+            if (id == null) return;
+            docs.set(id, null);
+            liveDocs--;
+            totalLen -= docLen[id];
+            for (String t : tf.keySet()) {
+                Postings p = terms.get(t);
+                if (p == null) continue;
+                p.live--;
+                if (p.live <= 0) terms.remove(t);
+                else if (p.size - p.live > p.size / 2) p.compact(docs);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Weighted term frequencies of the book's fields into tf; returns the weighted length */
+    private static int termFrequencies(Book b, Map<String, Integer> tf) {
+        return count(tf, b.title, TITLE_WEIGHT) + count(tf, b.author, AUTHOR_WEIGHT) + count(tf, b.category, CATEGORY_WEIGHT);
+    }
+
+    private static int count(Map<String, Integer> tf, String field, int weight) {
+        List<String> tokens = tokenize(field);
+        for (String t : tokens) tf.merge(t, weight, Integer::sum);
+        return tokens.size() * weight;
+    }
+
+    /** Top-k books by BM25 score; only postings of the query terms are visited */
+    public List<Hit> search(String query, int k) {
+        List<String> tokens = tokenize(query);
+        if (tokens.isEmpty() || k <= 0) return Collections.emptyList();
+
+        lock.readLock().lock();
+        try {
+            if (liveDocs == 0) return Collections.emptyList();
+            double avgLen = (double) totalLen / liveDocs;
+            Map<Integer, Double> acc = new HashMap<>();
+            for (int i = 0; i < tokens.size(); i++) {
+                String t = tokens.get(i);
+                Postings exact = terms.get(t);
+                if (exact != null) accumulate(acc, exact, avgLen);
+                else if (i == tokens.size() - 1) {
+                    // partially typed last word: expand to indexed terms with that prefix
+                    int expanded = 0;
+                    for (Postings p : terms.subMap(t, true, t + Character.MAX_VALUE, true).values()) {
+                        accumulate(acc, p, avgLen);
+                        if (++expanded >= MAX_PREFIX_EXPANSION) break;
+                    }
+                }
+            }
+
+            PriorityQueue<Hit> top = new PriorityQueue<>(Comparator.comparingDouble(h -> h.score));
+            for (Map.Entry<Integer, Double> e : acc.entrySet()) {
+                double score = e.getValue();
+                if (top.size() < k) top.add(new Hit(docs.get(e.getKey()), score));
+                else if (score > top.peek().score) {
+                    top.poll();
+                    top.add(new Hit(docs.get(e.getKey()), score));
+                }
+            }
+            List<Hit> out = new ArrayList<>(top);
+            out.sort((a, b) -> Double.compare(b.score, a.score));
+            return out;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void accumulate(Map<Integer, Double> acc, Postings p, double avgLen) {
+        double idf = Math.log(1 + (liveDocs - p.live + 0.5) / (p.live + 0.5));
+        for (int i = 0; i < p.size; i++) {
+            int id = p.ids[i];
+            if (docs.get(id) == null) continue;
+            int tf = p.tfs[i];
+            double norm = K1 * (1 - B + B * docLen[id] / avgLen);
+            acc.merge(id, idf * tf * (K1 + 1) / (tf + norm), Double::sum);
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return liveDocs;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
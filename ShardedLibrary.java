@@ -0,0 +1,553 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Coordinator over a Library partitioned into shards.
+ *
+ * Books (with their waiting lists and holds) live on the shard that owns their
+ * ISBN on a ConsistentHashRing; a user's record lives on the shard owning their
+ * name (the home shard). Borrows and returns go to the book's shard alone. A
+ * shard that sees a user for the first time registers a replica of the record
+ * (name and contact), so every shard's journal and snapshot replay on their
+ * own. A user's borrow history lives on the home shard only: a loan on another
+ * shard is forwarded there after the call (a LOAN journal record), so the home
+ * record holds every loan in order and each loan pairs up in exactly one
+ * shard's co-borrow index.
+ *
+ * Catalog-wide reads (search, recommendations, category counts and pages,
+ * ISBN-ordered listing, stats) are scattered to every shard and gathered: hits
+ * merged by score, listings merged by ISBN, counts summed. Recommendations are
+ * seeded from the home history and merged by distance or summed co-borrow
+ * counts, so they match those of a single Library over the same data. The shelf graph is
+ * the building's layout, not partitioned: shard 0 keeps it.
+ *
+ * Shards are in-process Library instances, each persisting to
+ * library.data.dir/shard-N; with a single shard this is a plain Library in
+ * library.data.dir. The shard count is recorded next to the shard directories,
+ * since opening the data with another count would route keys to the wrong shards.
+ */
+public class ShardedLibrary {
+    private static final String LAYOUT_FILE = "shards";
+
+    private final List<Library> shards;
+    private final ConsistentHashRing<Library> ring;
+    private final LongAdder users = new LongAdder(); // users at their home shard (replicas not counted)
+    private final Stats stats = new Stats();
+
+    /** Coordinator over the given shards, in order (their order fixes the ring) */
+    ShardedLibrary(List<Library> shards) {
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+        List<String> labels = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++) labels.add("shard-" + i);
+        this.ring = new ConsistentHashRing<>(this.shards, labels, ConsistentHashRing.DEFAULT_POINTS);
+        for (int i = 0; i < shards.size(); i++) {
+            for (String name : shards.get(i).listAllUsers()) {
+                if (ring.index(name) == i) users.increment();
+            }
+            int home = i;
+            if (shards.size() > 1) shards.get(i).keepHistoriesOf(name -> ring.index(name) == home);
+        }
+    }
+
+    /** Shards that only live in memory (they share library.data.dir, so never journal them) */
+    static ShardedLibrary inMemory(int count) {
+        List<Library> list = new ArrayList<>();
+        for (int i = 0; i < count; i++) list.add(new Library());
+        return new ShardedLibrary(list);
+    }
+
+    // ====== Persistence ======
+    /** Load the shards saved in library.data.dir; null if none of them has saved state */
+    public static ShardedLibrary loadState(int count) throws IOException {
+        checkLayout(count);
+        if (count == 1) {
+            Library lib = Library.loadState();
+            return lib == null ? null : new ShardedLibrary(Collections.singletonList(lib));
+        }
+        List<Library> list = new ArrayList<>();
+        boolean any = false;
+        for (int i = 0; i < count; i++) {
+            Library lib = Library.loadState(shardDir(i));
+            any |= lib != null;
+            list.add(lib != null ? lib : new Library(shardDir(i)));
+        }
+        return any ? new ShardedLibrary(list) : null;
+    }
+
+    /** Empty shards persisting to library.data.dir */
+    public static ShardedLibrary create(int count) throws IOException {
+        checkLayout(count);
+        if (count == 1) return new ShardedLibrary(Collections.singletonList(new Library()));
+        List<Library> list = new ArrayList<>();
+        for (int i = 0; i < count; i++) list.add(new Library(shardDir(i)));
+        return new ShardedLibrary(list);
+    }
+
+    private static Path shardDir(int i) {
+        return Library.DATA_DIR.resolve("shard-" + i);
+    }
+
+    /** Refuse to open data written with another shard count; record the count for a new layout */
+    private static void checkLayout(int count) throws IOException {
+        if (count < 1) throw new IllegalArgumentException("Shard count must be at least 1: " + count);
+        Path file = Library.DATA_DIR.resolve(LAYOUT_FILE);
+        int recorded = Files.exists(file) ? Integer.parseInt(new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim()) : 1;
+        if (recorded != count && (recorded > 1 || Files.exists(Library.DATA_DIR.resolve("library_data.snap")))) {
+            throw new IllegalStateException(Library.DATA_DIR.toAbsolutePath() + " holds a library in " + recorded
+                    + " shard(s); start with -Dlibrary.shards=" + recorded);
+        }
+        if (count > 1) {
+            for (int i = 0; i < count; i++) Files.createDirectories(shardDir(i));
+            Files.write(file, Integer.toString(count).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    public void openJournal() throws IOException {
+        for (Library s : shards) s.openJournal();
+    }
+
+    public void closeJournal() throws IOException {
+        for (Library s : shards) s.closeJournal();
+    }
+
+    /** Checkpoint every shard (each one takes its own consistent cut) */
+    public void saveState() throws IOException {
+        for (Library s : shards) s.saveState();
+    }
+
+    // ====== Routing ======
+    public int shardCount() {
+        return shards.size();
+    }
+
+    Library shard(int i) {
+        return shards.get(i);
+    }
+
+    /** Shard owning a book */
+    Library shardFor(String isbn) {
+        return ring.node(isbn);
+    }
+
+    /** Shard owning a user's record */
+    Library homeOf(String userName) {
+        return ring.node(userName);
+    }
+
+    // ====== Books and users ======
+    public void addBook(Book b) {
+        shardFor(b.isbn).addBook(b);
+    }
+
+    /** Add books in one batch per shard, the shards building their indexes in parallel; returns the number added */
+    public int addBooks(Collection<Book> books) throws IOException {
+        if (shards.size() == 1) return shards.get(0).addBooks(books);
+        List<List<Book>> parts = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++) parts.add(new ArrayList<>());
+        for (Book b : books) parts.get(ring.index(b.isbn)).add(b);
+        try {
+            return IntStream.range(0, shards.size()).parallel().map(i -> {
+                try {
+                    return parts.get(i).isEmpty() ? 0 : shards.get(i).addBooks(parts.get(i));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).sum();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    public boolean addUser(User u) {
+        boolean added = homeOf(u.name).addUser(u);
+        if (added) users.increment();
+        return added;
+    }
+
+    public Book getBookByIsbn(String isbn) {
+        return shardFor(isbn).getBookByIsbn(isbn);
+    }
+
+    /** The user's home record, whose history holds the loans made on every shard */
+    public User getUserByName(String name) {
+        return homeOf(name).getUserByName(name);
+    }
+
+    /** Names of all users, each counted at its home shard only */
+    public Set<String> listAllUsers() {
+        if (shards.size() == 1) return shards.get(0).listAllUsers();
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i < shards.size(); i++) {
+            for (String name : shards.get(i).listAllUsers()) {
+                if (ring.index(name) == i) names.add(name);
+            }
+        }
+        return names;
+    }
+
+    // ====== Borrowing (forwarded to the book's shard) ======
+    public String borrowBook(String userName, String isbn) {
+        Library shard = shardFor(isbn);
+        if (!knownOn(shard, userName)) return "User not found";
+        String result = shard.borrowBook(userName, isbn);
+        forwardLoans();
+        return result;
+    }
+
+    /** False if the user does not exist; otherwise makes sure shard has a replica of their record */
+    private boolean knownOn(Library shard, String userName) {
+        if (shard.getUserByName(userName) != null) return true;
+        User home = homeOf(userName).getUserByName(userName);
+        if (home == null) return false;
+        shard.addUserIfAbsent(new User(home.name, home.contact));
+        return true;
+    }
+
+    public String returnBook(String isbn) {
+        String result = shardFor(isbn).returnBook(isbn); // may issue the book to a waiter
+        forwardLoans();
+        return result;
+    }
+
+    /** Record the loans the shards made to users living elsewhere in their home histories */
+    private void forwardLoans() {
+        if (shards.size() == 1) return;
+        for (Library s : shards) s.forwardLoans((user, title) -> homeOf(user).recordLoan(user, title));
+    }
+
+    /**
+     * Library.borrowBooks per shard: the pairs are split by the shard of their
+     * ISBN and each part runs as one batch (one lock acquisition and journal
+     * record per shard, shards in parallel). Atomic per shard, not across them.
+     */
+    public List<String> borrowBooks(List<Map.Entry<String, String>> loans) {
+        if (shards.size() == 1) return shards.get(0).borrowBooks(loans);
+        Library.checkLoans(loans); // the whole batch, before any shard changes
+        String[] results = new String[loans.size()];
+        List<List<Integer>> positions = partition(loans.size(), i -> loans.get(i).getValue());
+        IntStream.range(0, shards.size()).parallel().forEach(s -> {
+            List<Map.Entry<String, String>> part = new ArrayList<>();
+            List<Integer> at = new ArrayList<>();
+            for (int i : positions.get(s)) {
+                Map.Entry<String, String> loan = loans.get(i);
+                if (knownOn(shards.get(s), loan.getKey())) {
+                    part.add(loan);
+                    at.add(i);
+                } else {
+                    results[i] = "User not found";
+                }
+            }
+            if (part.isEmpty()) return;
+            List<String> r = shards.get(s).borrowBooks(part);
+            for (int j = 0; j < r.size(); j++) results[at.get(j)] = r.get(j);
+        });
+        forwardLoans();
+        return Arrays.asList(results);
+    }
+
+    /** Library.returnBooks per shard, split and run like borrowBooks */
+    public List<String> returnBooks(List<String> isbns) {
+        if (shards.size() == 1) return shards.get(0).returnBooks(isbns);
+        Library.checkIsbns(isbns);
+        String[] results = new String[isbns.size()];
+        List<List<Integer>> positions = partition(isbns.size(), isbns::get);
+        IntStream.range(0, shards.size()).parallel().forEach(s -> {
+            List<Integer> at = positions.get(s);
+            if (at.isEmpty()) return;
+            List<String> part = new ArrayList<>(at.size());
+            for (int i : at) part.add(isbns.get(i));
+            List<String> r = shards.get(s).returnBooks(part);
+            for (int j = 0; j < r.size(); j++) results[at.get(j)] = r.get(j);
+        });
+        forwardLoans();
+        return Arrays.asList(results);
+    }
+
+    /** Positions 0..n-1 grouped by the shard owning isbnAt(i), in order within each shard */
+    private List<List<Integer>> partition(int n, IntFunction<String> isbnAt) {
+        List<List<Integer>> parts = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++) parts.add(new ArrayList<>());
+        for (int i = 0; i < n; i++) parts.get(ring.index(isbnAt.apply(i))).add(i);
+        return parts;
+    }
+
+    public String holdFor(String isbn) {
+        return shardFor(isbn).holdFor(isbn);
+    }
+
+    public String statusOf(Book b) {
+        return shardFor(b.isbn).statusOf(b);
+    }
+
+    public int expireHolds() {
+        int n = 0;
+        for (Library s : shards) n += s.expireHolds();
+        forwardLoans();
+        return n;
+    }
+
+    public int holdCount() {
+        int n = 0;
+        for (Library s : shards) n += s.holdCount();
+        return n;
+    }
+
+    // ====== Scatter-gather reads ======
+    public Book searchByTitleBinary(String title) {
+        if (shards.size() == 1) return shards.get(0).searchByTitleBinary(title);
+        return shards.parallelStream().map(s -> s.searchByTitleBinary(title))
+                .filter(Objects::nonNull).findFirst().orElse(null);
+    }
+
+    /** The best limit hits of every shard, merged by score (ISBN breaks ties) */
+    public List<SearchIndex.Hit> searchFullText(String query, int limit) {
+        if (shards.size() == 1) return shards.get(0).searchFullText(query, limit);
+        return shards.parallelStream().flatMap(s -> s.searchFullText(query, limit).stream())
+                .sorted(Comparator.comparingDouble((SearchIndex.Hit h) -> -h.score).thenComparing(h -> h.book.isbn))
+                .limit(limit).collect(Collectors.toList());
+    }
+
+    /** Every shard's k nearest titles to the user's last loan (from the home record), merged by distance */
+    public List<Book> recommendByLastBorrow(String userName, int k) {
+        if (shards.size() == 1) return shards.get(0).recommendByLastBorrow(userName, k);
+        List<String> history = homeHistory(userName);
+        if (history.isEmpty()) return Collections.emptyList();
+        String last = history.get(history.size() - 1);
+        return shards.parallelStream().flatMap(s -> s.similarTitles(last, k).stream())
+                .sorted(Comparator.comparingInt((SimilarityIndex.Match m) -> m.distance).thenComparing(m -> m.book.isbn))
+                .limit(k).map(m -> m.book).collect(Collectors.toList());
+    }
+
+    /**
+     * Co-borrow counts of the user's last loan summed over the shards (each
+     * user's pairs are counted on their home shard), highest first, skipping
+     * titles in the user's history.
+     */
+    public List<Book> recommendByCoBorrow(String userName, int k) {
+        if (shards.size() == 1) return shards.get(0).recommendByCoBorrow(userName, k);
+        List<String> history = homeHistory(userName);
+        if (history.isEmpty()) return Collections.emptyList();
+        String last = history.get(history.size() - 1);
+        Set<String> read = new HashSet<>(history);
+        Map<String, Integer> counts = new HashMap<>();
+        for (Library s : shards) s.coBorrowedWith(last).forEach((title, c) -> counts.merge(title, c, Integer::sum));
+        List<Book> rec = new ArrayList<>(k);
+        counts.entrySet().stream().filter(e -> !read.contains(e.getKey()))
+                .sorted(Map.Entry.<String, Integer>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                .limit(k).forEach(e -> {
+                    Book b = searchByTitleBinary(e.getKey());
+                    if (b != null) rec.add(b);
+                });
+        return rec;
+    }
+
+    /** A copy of the user's full borrow history, oldest first (empty for an unknown user) */
+    private List<String> homeHistory(String userName) {
+        User u = homeOf(userName).getUserByName(userName);
+        if (u == null) return Collections.emptyList();
+        synchronized (u) {
+            return new ArrayList<>(u.borrowHistory);
+        }
+    }
+
+    /** Books with ISBN greater than after, in ISBN order: a lazy merge of the shards' ordered views */
+    public Iterable<Book> booksAfter(String after) {
+        if (shards.size() == 1) return shards.get(0).booksAfter(after);
+        return () -> {
+            PriorityQueue<Cursor> heads = new PriorityQueue<>(Comparator.comparing((Cursor c) -> c.head.isbn));
+            for (Library s : shards) {
+                Cursor c = new Cursor(s.booksAfter(after).iterator());
+                if (c.advance()) heads.add(c);
+            }
+            return new Iterator<Book>() {
+                @Override
+                public boolean hasNext() {
+                    return !heads.isEmpty();
+                }
+
+                @Override
+                public Book next() {
+                    Cursor c = heads.poll();
+                    if (c == null) throw new NoSuchElementException();
+                    Book b = c.head;
+                    if (c.advance()) heads.add(c);
+                    return b;
+                }
+            };
+        };
+    }
+
+    private static final class Cursor {
+        final Iterator<Book> it;
+        Book head;
+
+        Cursor(Iterator<Book> it) {
+            this.it = it;
+        }
+
+        boolean advance() {
+            head = it.hasNext() ? it.next() : null;
+            return head != null;
+        }
+    }
+
+    /** Category counts summed over the shards; null if no shard has the category */
+    public CategoryIndex.Category category(String path) {
+        if (shards.size() == 1) return shards.get(0).category(path);
+        CategoryIndex.Category first = null;
+        long total = 0, available = 0;
+        Map<String, long[]> children = new LinkedHashMap<>();
+        Map<String, String> names = new HashMap<>();
+        for (Library s : shards) {
+            CategoryIndex.Category c = s.category(path);
+            if (c == null) continue;
+            if (first == null) first = c;
+            total += c.total;
+            available += c.available;
+            for (CategoryIndex.Category child : c.children) {
+                long[] n = children.computeIfAbsent(child.path, p -> new long[2]);
+                n[0] += child.total;
+                n[1] += child.available;
+                names.putIfAbsent(child.path, child.name);
+            }
+        }
+        if (first == null) return null;
+        List<CategoryIndex.Category> merged = new ArrayList<>();
+        for (Map.Entry<String, long[]> e : children.entrySet()) {
+            merged.add(new CategoryIndex.Category(e.getKey(), names.get(e.getKey()), e.getValue()[0], e.getValue()[1], Collections.emptyList()));
+        }
+        return new CategoryIndex.Category(first.path, first.name, total, available, merged);
+    }
+
+    /**
+     * One page of the books under a category: shard by shard, each in its own
+     * category order. Whole shards before the offset are skipped by their counts.
+     */
+    public List<Book> booksInCategory(String path, boolean availableOnly, int offset, int limit) {
+        if (shards.size() == 1) return shards.get(0).booksInCategory(path, availableOnly, offset, limit);
+        List<Book> page = new ArrayList<>();
+        boolean found = false;
+        long skip = offset;
+        for (Library s : shards) {
+            if (page.size() >= limit) break;
+            CategoryIndex.Category c = s.category(path);
+            if (c == null) continue;
+            found = true;
+            long here = availableOnly ? c.available : c.total;
+            if (skip >= here) {
+                skip -= here;
+                continue;
+            }
+            List<Book> part = s.booksInCategory(path, availableOnly, (int) skip, limit - page.size());
+            if (part != null) page.addAll(part);
+            skip = 0;
+        }
+        return found ? page : null;
+    }
+
+    // ====== Shelf graph (shard 0) ======
+    public LibraryGraph getGraph() {
+        return shards.get(0).getGraph();
+    }
+
+    public RoutePlanner.Plan planPickRun(String startShelf, Collection<String> isbns) {
+        if (shards.size() == 1) return shards.get(0).planPickRun(startShelf, isbns);
+        Map<String, Book> books = new HashMap<>();
+        for (String isbn : isbns) {
+            Book b = getBookByIsbn(isbn);
+            if (b != null) books.put(isbn, b);
+        }
+        return RoutePlanner.plan(getGraph(), startShelf, isbns, books);
+    }
+
+    /** Every shard publishes its change events to bus */
+    void publishTo(EventBus bus) {
+        for (Library s : shards) s.publishTo(bus);
+    }
+
+    // ====== Stats ======
+    /** Sum of the shards' versions: changes after every mutation on any shard */
+    public long version() {
+        return sum(Library::version);
+    }
+
+    // the narrower counters, summed the same way (each shard's only grows, so the sum changes whenever one does)
+    public long catalogVersion() {
+        return sum(Library::catalogVersion);
+    }
+
+    public long availabilityVersion() {
+        return sum(Library::availabilityVersion);
+    }
+
+    public long historyVersion() {
+        return sum(Library::historyVersion);
+    }
+
+    /** Stamp of the user's history on their home shard, where all of it lives */
+    public long historyVersion(String userName) {
+        return homeOf(userName).historyVersion(userName);
+    }
+
+    private long sum(ToLongFunction<Library> counter) {
+        long v = 0;
+        for (Library s : shards) v += counter.applyAsLong(s);
+        return v;
+    }
+
+    public Stats stats() {
+        return stats;
+    }
+
+    /** Catalog counters summed over the shards on each read (see LibraryStats) */
+    public final class Stats {
+        public long totalBooks() {
+            long n = 0;
+            for (Library s : shards) n += s.stats().totalBooks();
+            return n;
+        }
+
+        public long availableBooks() {
+            long n = 0;
+            for (Library s : shards) n += s.stats().availableBooks();
+            return n;
+        }
+
+        public long borrowedBooks() {
+            long n = 0;
+            for (Library s : shards) n += s.stats().borrowedBooks();
+            return n;
+        }
+
+        public long totalUsers() {
+            return users.sum();
+        }
+
+        public long waitlistedEntries() {
+            long n = 0;
+            for (Library s : shards) n += s.stats().waitlistedEntries();
+            return n;
+        }
+
+        public Map<String, Long> booksByCategory() {
+            if (shards.size() == 1) return shards.get(0).stats().booksByCategory();
+            Map<String, Long> out = new TreeMap<>();
+            for (Library s : shards) s.stats().booksByCategory().forEach((c, n) -> out.merge(c, n, Long::sum));
+            return out;
+        }
+
+        /** Books per shard, for checking the ring's balance */
+        public long[] booksPerShard() {
+            long[] n = new long[shards.size()];
+            for (int i = 0; i < n.length; i++) n[i] = shards.get(i).stats().totalBooks();
+            return n;
+        }
+    }
+}
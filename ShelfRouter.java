@@ -0,0 +1,149 @@
+import java.util.*;
+
+/**
+ * Immutable routing view of a LibraryGraph: shelf names interned to int ids,
+ * adjacency in CSR arrays (offsets/targets/weights) and a cache of
+ * shortest-path trees per source shelf. Small layouts get every tree up front
+ * (all-pairs); larger ones compute a tree on first use of a source. The graph
+ * builds a new router whenever its layout changes, which drops the cache.
+ */
+public class ShelfRouter {
+    static final int INF = Integer.MAX_VALUE;
+    private static final int ALL_PAIRS_MAX_SHELVES = 256;
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final String[] names;
+    private final int[] offsets, targets, weights;
+    private final Tree[] trees;
+
+    /** Shortest-path tree from one source: distance, parent and hop count per shelf */
+    static final class Tree {
+        final int[] dist, parent, hops;
+
+        Tree(int[] dist, int[] parent, int[] hops) {
+            this.dist = dist;
+            this.parent = parent;
+            this.hops = hops;
+        }
+    }
+
+    ShelfRouter(Map<String, Map<String, Integer>> adj) {
+        names = adj.keySet().toArray(new String[0]);
+        for (int i = 0; i < names.length; i++) ids.put(names[i], i);
+        offsets = new int[names.length + 1];
+        int edges = 0;
+        for (int i = 0; i < names.length; i++) {
+            offsets[i] = edges;
+            edges += adj.get(names[i]).size();
+        }
+        offsets[names.length] = edges;
+        targets = new int[edges];
+        weights = new int[edges];
+        for (int i = 0; i < names.length; i++) {
+            int e = offsets[i];
+            for (Map.Entry<String, Integer> nb : adj.get(names[i]).entrySet()) {
+                targets[e] = ids.get(nb.getKey());
+                weights[e++] = nb.getValue();
+            }
+        }
+        trees = new Tree[names.length];
+        if (names.length <= ALL_PAIRS_MAX_SHELVES) {
+            for (int s = 0; s < names.length; s++) trees[s] = dijkstra(s);
+        }
+    }
+
+    /** Shelf id, or -1 if unknown */
+    int id(String shelf) {
+        Integer id = ids.get(shelf);
+        return id == null ? -1 : id;
+    }
+
+    String name(int id) {
+        return names[id];
+    }
+
+    int size() {
+        return names.length;
+    }
+
+    Tree tree(int source) {
+        Tree t = trees[source];
+        if (t == null) {
+            // racing threads may both compute it; trees are immutable so either result is fine
+            t = dijkstra(source);
+            trees[source] = t;
+        }
+        return t;
+    }
+
+    int distance(int from, int to) {
+        return tree(from).dist[to];
+    }
+
+    /** Shelf names from source to target, or an empty list if unreachable */
+    List<String> path(int from, int to) {
+        Tree t = tree(from);
+        if (t.dist[to] == INF) return Collections.emptyList();
+        String[] path = new String[t.hops[to] + 1];
+        for (int cur = to, i = path.length - 1; cur != -1; cur = t.parent[cur]) path[i--] = names[cur];
+        return Arrays.asList(path);
+    }
+
+    /** Dijkstra over the CSR arrays with a binary heap of (dist, node) packed into longs */
+    private Tree dijkstra(int source) {
+        int n = names.length;
+        int[] dist = new int[n], parent = new int[n], hops = new int[n];
+        Arrays.fill(dist, INF);
+        Arrays.fill(parent, -1);
+        dist[source] = 0;
+        long[] heap = new long[Math.max(4, targets.length + 1)];
+        int size = 0;
+        heap[size++] = source;
+        while (size > 0) {
+            long top = heap[0];
+            heap[0] = heap[--size];
+            siftDown(heap, size);
+            int u = (int) top, d = (int) (top >>> 32);
+            if (d > dist[u]) continue;
+            for (int e = offsets[u]; e < offsets[u + 1]; e++) {
+                int v = targets[e];
+                long nd = (long) d + weights[e];
+                if (nd < dist[v]) {
+                    dist[v] = (int) nd;
+                    parent[v] = u;
+                    hops[v] = hops[u] + 1;
+                    if (size == heap.length) heap = Arrays.copyOf(heap, size * 2);
+                    heap[size] = (nd << 32) | v;
+                    siftUp(heap, size++);
+                }
+            }
+        }
+        return new Tree(dist, parent, hops);
+    }
+
+    private static void siftUp(long[] heap, int i) {
+        long x = heap[i];
+        while (i > 0) {
+            int p = (i - 1) >>> 1;
+            if (heap[p] <= x) break;
+            heap[i] = heap[p];
+            i = p;
+        }
+        heap[i] = x;
+    }
+
+    private static void siftDown(long[] heap, int size) {
+        if (size == 0) return;
+        long x = heap[0];
+        int i = 0;
+        while (true) {
+            int c = 2 * i + 1;
+            if (c >= size) break;
+            if (c + 1 < size && heap[c + 1] < heap[c]) c++;
+            if (heap[c] >= x) break;
+            heap[i] = heap[c];
+            i = c;
+        }
+        heap[i] = x;
+    }
+}
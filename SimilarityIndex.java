@@ -0,0 +1,338 @@
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Trigram index over normalized titles for nearest-title recommendations.
+ * Candidates are gathered from the postings of the query's trigrams and
+ * ordered by a q-gram lower bound on edit distance (each edit destroys at
+ * most 3 trigrams), so exact distances are only computed until the bound
+ * can no longer beat the current k-th best, each one with a cutoff at that
+ * k-th best distance (see EditDistance). At most a fixed budget of
+ * candidates is scored, so a query touches only a small fraction of the
+ * catalog even when titles overlap heavily. Large catalogs are split into
+ * docId chunks scored on a ForkJoinPool, each with its own bounded top-k
+ * heap and candidate budget, and the heaps are merged at the end.
+ * Maintained as books are added and removed: a removed title is a
+ * tombstone until more than half of a postings list is dead, when that list
+ * is compacted (and dropped once empty). Queries share a read lock and run
+ * concurrently, each thread counting trigram overlaps in its own scratch.
+ */
+public class SimilarityIndex {
+    private static final int Q = 3;
+    private static final char PAD = '\u0002';
+    private static final int MIN_CANDIDATE_BUDGET = 512;
+    private static final int CANDIDATES_PER_RESULT = 64;
+    // catalogs at least this large are scored in parallel chunks on the common ForkJoinPool
+    static final int PARALLEL_THRESHOLD = Integer.getInteger("library.recommend.parallelThreshold", 100_000);
+    private static final int MIN_CHUNK_DOCS = 16_384;
+    // titles sharing no trigram with the query are examined only this far to fill up k
+    private static final int FILL_SCAN_DOCS = 1_024;
+
+    private final Map<String, Postings> grams = new HashMap<>();
+    private final Map<Book, Integer> docIds = new IdentityHashMap<>();
+    private final List<Book> docs = new ArrayList<>();   // docId -> Book, null once removed
+    private final List<String> titles = new ArrayList<>(); // docId -> normalized title, null once removed
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Per-thread scoring buffers, indexed by docId - lo of the range being scored
+     * (so at most one chunk, or a catalog below PARALLEL_THRESHOLD, long). A
+     * scoreRange call never blocks, so a thread uses its buffers for one range
+     * at a time and leaves the overlap counts zeroed.
+     */
+    private static final class Scratch {
+        int[] overlap = new int[16];
+        int[] touched = new int[16];
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    /** Postings list: docId and how many times the trigram occurs in that title */
+    private static final class Postings {
+        int[] ids = new int[4];
+        int[] counts = new int[4];
+        int size;
+        int live; // entries whose title has not been removed
+
+        void add(int id, int count) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+            }
+            ids[size] = id;
+            counts[size] = count;
+            size++;
+            live++;
+        }
+
+        /** Drop the entries of removed titles, shrinking the arrays if mostly empty */
+        void compact(List<Book> docs) {
+            int n = 0;
+            for (int i = 0; i < size; i++) {
+                if (docs.get(ids[i]) == null) continue;
+                ids[n] = ids[i];
+                counts[n] = counts[i];
+                n++;
+            }
+            size = n;
+            if (n * 4 < ids.length && ids.length > 4) {
+                ids = Arrays.copyOf(ids, Math.max(4, n * 2));
+                counts = Arrays.copyOf(counts, ids.length);
+            }
+        }
+    }
+
+    /** A book near the query title and its edit distance from it */
+    public static class Match {
+        public final Book book;
+        public final int distance;
+
+        Match(Book book, int distance) {
+            this.book = book;
+            this.distance = distance;
+        }
+    }
+
+    static Map<String, Integer> trigrams(String s) {
+        String padded = "" + PAD + PAD + s + PAD + PAD;
+        Map<String, Integer> out = new HashMap<>();
+        for (int i = 0; i + Q <= padded.length(); i++) out.merge(padded.substring(i, i + Q), 1, Integer::sum);
+        return out;
+    }
+
+    private static int gramCount(String s) {
+        return s.length() + Q - 1;
+    }
+
+    public void add(Book b) {
+        lock.writeLock().lock();
+        try {
+            if (docIds.containsKey(b)) return;
+            String t = b.title.toLowerCase();
+            int id = docs.size();
+            docs.add(b);
+            titles.add(t);
+            docIds.put(b, id);
+            for (Map.Entry<String, Integer> e : trigrams(t).entrySet()) {
+                grams.computeIfAbsent(e.getKey(), k -> new Postings()).add(id, e.getValue());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(Book b) {
+        lock.writeLock().lock();
+        try {
+            Integer id = docIds.remove(b);
+            if (id == null) return;
+            docs.set(id, null);
+            for (String gram : trigrams(titles.set(id, null)).keySet()) {
+                Postings p = grams.get(gram);
+                if (p == null) continue;
+                p.live--;
+                if (p.live <= 0) grams.remove(gram);
+                else if (p.size - p.live > p.size / 2) p.compact(docs);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Up to k books nearest to title by edit distance (closest first),
+     * excluding books with exactly that title.
+     */
+    public List<Book> nearest(String title, int k) {
+        List<Book> out = new ArrayList<>();
+        for (Match m : nearestMatches(title, k)) out.add(m.book);
+        return out;
+    }
+
+    /** As nearest, with the distances (for merging the answers of several indexes) */
+    public List<Match> nearestMatches(String title, int k) {
+        if (k <= 0) return Collections.emptyList();
+        lock.readLock().lock();
+        try {
+            return nearestLocked(title.toLowerCase(), k);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<Match> nearestLocked(String q, int k) {
+        Map<String, Integer> qgrams = trigrams(q);
+
+        Postings[] lists = new Postings[qgrams.size()];
+        int[] qcounts = new int[qgrams.size()];
+        int g = 0;
+        for (Map.Entry<String, Integer> e : qgrams.entrySet()) {
+            Postings p = grams.get(e.getKey());
+            if (p == null) continue;
+            lists[g] = p;
+            qcounts[g++] = e.getValue();
+        }
+        Query query = new Query(q, Arrays.copyOf(lists, g), Arrays.copyOf(qcounts, g), k);
+
+        PriorityQueue<int[]> best;
+        if (docs.size() >= PARALLEL_THRESHOLD) {
+            best = ForkJoinPool.commonPool().invoke(new ChunkTask(query, 0, docs.size()));
+        } else {
+            best = scoreRange(query, 0, docs.size());
+        }
+
+        // titles sharing no trigram are barely related: fill k from the first few only, not the whole catalog
+        if (best.size() < k) {
+            int[] taken = new int[best.size()];
+            int t = 0;
+            for (int[] e : best) taken[t++] = e[0];
+            Arrays.sort(taken);
+            for (int id = 0, n = Math.min(docs.size(), FILL_SCAN_DOCS); id < n && best.size() < k; id++) {
+                if (docs.get(id) != null && Arrays.binarySearch(taken, id) < 0) offer(best, k, q, id);
+            }
+        }
+
+        List<Match> out = new ArrayList<>(best.size());
+        while (!best.isEmpty()) {
+            int[] e = best.poll();
+            out.add(new Match(docs.get(e[0]), e[1]));
+        }
+        Collections.reverse(out);
+        return out;
+    }
+
+    /** Trigram postings of one query, shared read-only by all chunks */
+    private static final class Query {
+        final String text;
+        final Postings[] lists;
+        final int[] counts;
+        final int k;
+
+        Query(String text, Postings[] lists, int[] counts, int k) {
+            this.text = text;
+            this.lists = lists;
+            this.counts = counts;
+            this.k = k;
+        }
+    }
+
+    /** Top-k of the titles with docId in [lo, hi) as a max-heap of {docId, distance} */
+    private PriorityQueue<int[]> scoreRange(Query query, int lo, int hi) {
+        Scratch scratch = SCRATCH.get();
+        if (scratch.overlap.length < hi - lo) scratch.overlap = new int[Math.max(hi - lo, scratch.overlap.length * 2)];
+        int[] shared = scratch.overlap;
+        int[] touchedBuf = scratch.touched;
+        int touchedCount = 0;
+        for (int g = 0; g < query.lists.length; g++) {
+            Postings p = query.lists[g];
+            int qc = query.counts[g];
+            // docIds are appended in increasing order, so each postings list is sorted
+            int i = Arrays.binarySearch(p.ids, 0, p.size, lo);
+            if (i < 0) i = -i - 1;
+            for (; i < p.size && p.ids[i] < hi; i++) {
+                int slot = p.ids[i] - lo;
+                if (shared[slot] == 0) {
+                    if (touchedCount == touchedBuf.length) touchedBuf = Arrays.copyOf(touchedBuf, touchedCount * 2);
+                    touchedBuf[touchedCount++] = slot;
+                }
+                shared[slot] += Math.min(qc, p.counts[i]);
+            }
+        }
+        scratch.touched = touchedBuf; // keep a grown buffer for the next query on this thread
+
+        // candidate (bound, id) pairs packed into longs so sorting needs no boxing
+        long[] candidates = new long[touchedCount];
+        int c = 0;
+        for (int i = 0; i < touchedCount; i++) {
+            int slot = touchedBuf[i];
+            int sharedGrams = shared[slot];
+            shared[slot] = 0;
+            int id = slot + lo;
+            if (docs.get(id) == null) continue;
+            candidates[c++] = ((long) lowerBound(query.text, titles.get(id), sharedGrams) << 32) | id;
+        }
+        Arrays.sort(candidates, 0, c);
+
+        // max-heap on distance holding the current k best
+        PriorityQueue<int[]> best = new PriorityQueue<>((x, y) -> Integer.compare(y[1], x[1]));
+        int budget = Math.max(MIN_CANDIDATE_BUDGET, query.k * CANDIDATES_PER_RESULT);
+        for (int i = 0; i < c && i < budget; i++) {
+            int bound = (int) (candidates[i] >>> 32);
+            if (best.size() == query.k && bound >= best.peek()[1]) break;
+            offer(best, query.k, query.text, (int) candidates[i]);
+        }
+        return best;
+    }
+
+    /** Splits the docId space in halves down to MIN_CHUNK_DOCS and merges the per-chunk heaps */
+    private final class ChunkTask extends RecursiveTask<PriorityQueue<int[]>> {
+        private static final long serialVersionUID = 1L;
+        private final Query query;
+        private final int lo, hi;
+
+        ChunkTask(Query query, int lo, int hi) {
+            this.query = query;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected PriorityQueue<int[]> compute() {
+            if (hi - lo <= MIN_CHUNK_DOCS) return scoreRange(query, lo, hi);
+            int mid = (lo + hi) >>> 1;
+            ChunkTask left = new ChunkTask(query, lo, mid);
+            left.fork();
+            PriorityQueue<int[]> merged = new ChunkTask(query, mid, hi).compute();
+            for (int[] e : left.join()) {
+                if (merged.size() < query.k) merged.add(e);
+                else if (e[1] < merged.peek()[1]) {
+                    merged.poll();
+                    merged.add(e);
+                }
+            }
+            return merged;
+        }
+    }
+
+    private void offer(PriorityQueue<int[]> best, int k, String q, int id) {
+        String t = titles.get(id);
+        if (t.equals(q)) return;
+        if (best.size() < k) best.add(new int[]{id, EditDistance.distance(q, t)});
+        else {
+            // only an exact distance below the current k-th best matters
+            int d = EditDistance.bounded(q, t, best.peek()[1] - 1);
+            if (d < best.peek()[1]) {
+                best.poll();
+                best.add(new int[]{id, d});
+            }
+        }
+    }
+
+    private static int lowerBound(String a, String b, int sharedGrams) {
+        int byGrams = (Math.max(gramCount(a), gramCount(b)) - sharedGrams + Q - 1) / Q;
+        return Math.max(byGrams, Math.abs(a.length() - b.length()));
+    }
+
+    /** Postings entries held, live or not (the benchmark's churn check bounds this) */
+    long postingEntries() {
+        lock.readLock().lock();
+        try {
+            long n = 0;
+            for (Postings p : grams.values()) n += p.size;
+            return n;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docIds.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
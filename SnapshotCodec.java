@@ -0,0 +1,263 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Versioned binary snapshot of a Library, replacing Java serialization.
+ *
+ * Layout (big-endian):
+ *   header   magic, version, journalSeq
+ *   strings  count, offsets[count + 1], UTF-8 blob    (deduplicated table)
+ *   books    count, fixed 29-byte records: isbn, title, author, category,
+ *            shelf (string ids), available flag, waitOffset, waitCount
+ *   waits    count, string ids of waiting user names
+ *   users    count, fixed 16-byte records: name, contact, histOffset, histCount
+ *   history  count, string ids of borrowed titles
+ *   shelves  count, string ids; edges count, (from, to, distance)
+ *   category pre-order (name id, child count)
+ *   holds    count, (isbn id, user id, deadline millis)     (since version 2)
+ *
+ * Loading maps the file and decodes strings, books and users in parallel since
+ * every record is fixed width; the Library then builds its indexes in parallel.
+ * Usage as converter: java SnapshotCodec library_data.ser library_data.snap
+ */
+public final class SnapshotCodec {
+    private static final int MAGIC = 0x4C534E50; // "LSNP"
+    private static final short VERSION = 2;
+    private static final int BOOK_RECORD = 5 * 4 + 1 + 4 + 4;
+    private static final int USER_RECORD = 4 * 4;
+
+    private SnapshotCodec() {}
+
+    // ====== Write ======
+    public static void write(Library lib, long journalSeq, Path file) throws IOException {
+        Map<String, Integer> ids = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        Collection<Book> books = lib.allBooks();
+        Collection<User> users = lib.allUsers();
+        LibraryGraph graph = lib.getGraph();
+
+        List<Book> bookList = new ArrayList<>(books);
+        List<User> userList = new ArrayList<>(users);
+        int[] bookFields = new int[bookList.size() * 5];
+        List<Integer> waits = new ArrayList<>();
+        int[][] waitRanges = new int[bookList.size()][];
+        for (int i = 0; i < bookList.size(); i++) {
+            Book b = bookList.get(i);
+            bookFields[i * 5] = intern(b.isbn, ids, strings);
+            bookFields[i * 5 + 1] = intern(b.title, ids, strings);
+            bookFields[i * 5 + 2] = intern(b.author, ids, strings);
+            bookFields[i * 5 + 3] = intern(b.category, ids, strings);
+            bookFields[i * 5 + 4] = intern(b.shelf, ids, strings);
+            int from = waits.size();
+            for (String w : b.waitingList()) waits.add(intern(w, ids, strings));
+            waitRanges[i] = new int[]{from, waits.size() - from};
+        }
+        List<Integer> history = new ArrayList<>();
+        int[][] userFields = new int[userList.size()][];
+        for (int i = 0; i < userList.size(); i++) {
+            User u = userList.get(i);
+            int from = history.size();
+            for (String t : u.borrowHistory) history.add(intern(t, ids, strings));
+            userFields[i] = new int[]{intern(u.name, ids, strings), intern(u.contact, ids, strings), from, history.size() - from};
+        }
+        List<String> shelves = new ArrayList<>(graph.shelves());
+        List<int[]> edges = new ArrayList<>();
+        for (String s : shelves) {
+            int from = intern(s, ids, strings);
+            for (Map.Entry<String, Integer> e : graph.neighbors(s).entrySet()) {
+                edges.add(new int[]{from, intern(e.getKey(), ids, strings), e.getValue()});
+            }
+        }
+        List<int[]> categories = new ArrayList<>();
+        flattenCategories(lib.getCategoryRoot(), ids, strings, categories);
+        List<Library.Hold> holds = new ArrayList<>(lib.allHolds());
+        int[][] holdFields = new int[holds.size()][];
+        for (int i = 0; i < holdFields.length; i++) {
+            Library.Hold h = holds.get(i);
+            holdFields[i] = new int[]{intern(h.isbn, ids, strings), intern(h.user, ids, strings)};
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(journalSeq);
+
+            byte[][] encoded = new byte[strings.size()][];
+            for (int i = 0; i < encoded.length; i++) encoded[i] = strings.get(i).getBytes(StandardCharsets.UTF_8);
+            out.writeInt(encoded.length);
+            int offset = 0;
+            for (byte[] e : encoded) {
+                out.writeInt(offset);
+                offset += e.length;
+            }
+            out.writeInt(offset);
+            for (byte[] e : encoded) out.write(e);
+
+            out.writeInt(bookList.size());
+            for (int i = 0; i < bookList.size(); i++) {
+                for (int f = 0; f < 5; f++) out.writeInt(bookFields[i * 5 + f]);
+                out.writeByte(bookList.get(i).isAvailable() ? 1 : 0);
+                out.writeInt(waitRanges[i][0]);
+                out.writeInt(waitRanges[i][1]);
+            }
+            writeInts(out, waits);
+
+            out.writeInt(userList.size());
+            for (int[] u : userFields) for (int v : u) out.writeInt(v);
+            writeInts(out, history);
+
+            out.writeInt(shelves.size());
+            for (String s : shelves) out.writeInt(ids.get(s));
+            out.writeInt(edges.size());
+            for (int[] e : edges) {
+                out.writeInt(e[0]);
+                out.writeInt(e[1]);
+                out.writeInt(e[2]);
+            }
+
+            out.writeInt(categories.size());
+            for (int[] c : categories) {
+                out.writeInt(c[0]);
+                out.writeInt(c[1]);
+            }
+
+            out.writeInt(holdFields.length);
+            for (int i = 0; i < holdFields.length; i++) {
+                out.writeInt(holdFields[i][0]);
+                out.writeInt(holdFields[i][1]);
+                out.writeLong(holds.get(i).deadline);
+            }
+        }
+    }
+
+    private static int intern(String s, Map<String, Integer> ids, List<String> strings) {
+        if (s == null) s = "";
+        Integer id = ids.get(s);
+        if (id != null) return id;
+        ids.put(s, strings.size());
+        strings.add(s);
+        return strings.size() - 1;
+    }
+
+    private static void writeInts(DataOutputStream out, List<Integer> values) throws IOException {
+        out.writeInt(values.size());
+        for (int v : values) out.writeInt(v);
+    }
+
+    private static void flattenCategories(CategoryNode node, Map<String, Integer> ids, List<String> strings, List<int[]> out) {
+        out.add(new int[]{intern(node.name, ids, strings), node.children.size()});
+        for (CategoryNode c : node.children) flattenCategories(c, ids, strings, out);
+    }
+
+    // ====== Read ======
+    public static Library read(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (ch.size() > Integer.MAX_VALUE) throw new IOException("Snapshot larger than 2 GB is not supported: " + file);
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (buf.getInt() != MAGIC) throw new IOException("Not a library snapshot: " + file);
+            short version = buf.getShort();
+            if (version < 1 || version > VERSION) throw new IOException("Unsupported snapshot version " + version);
+            long journalSeq = buf.getLong();
+
+            // string table: offsets are fixed width, so strings decode in parallel
+            int stringCount = buf.getInt();
+            int offsetsAt = buf.position();
+            int blobAt = offsetsAt + (stringCount + 1) * 4;
+            int blobLen = buf.getInt(offsetsAt + stringCount * 4);
+            String[] strings = new String[stringCount];
+            IntStream.range(0, stringCount).parallel().forEach(i -> {
+                int from = buf.getInt(offsetsAt + i * 4), to = buf.getInt(offsetsAt + (i + 1) * 4);
+                byte[] bytes = new byte[to - from];
+                buf.get(blobAt + from, bytes); // absolute get: safe to share the buffer across threads
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            });
+            buf.position(blobAt + blobLen);
+
+            int bookCount = buf.getInt();
+            int booksAt = buf.position();
+            buf.position(booksAt + bookCount * BOOK_RECORD);
+            int waitCount = buf.getInt();
+            int waitsAt = buf.position();
+            buf.position(waitsAt + waitCount * 4);
+            Book[] books = new Book[bookCount];
+            IntStream.range(0, bookCount).parallel().forEach(i -> {
+                int at = booksAt + i * BOOK_RECORD;
+                Book b = new Book(strings[buf.getInt(at)], strings[buf.getInt(at + 4)], strings[buf.getInt(at + 8)],
+                        strings[buf.getInt(at + 12)], strings[buf.getInt(at + 16)]);
+                b.setAvailable(buf.get(at + 20) != 0);
+                int from = buf.getInt(at + 21), count = buf.getInt(at + 25);
+                for (int w = 0; w < count; w++) b.addWaiter(strings[buf.getInt(waitsAt + (from + w) * 4)]);
+                books[i] = b;
+            });
+
+            int userCount = buf.getInt();
+            int usersAt = buf.position();
+            buf.position(usersAt + userCount * USER_RECORD);
+            int historyCount = buf.getInt();
+            int historyAt = buf.position();
+            buf.position(historyAt + historyCount * 4);
+            User[] users = new User[userCount];
+            IntStream.range(0, userCount).parallel().forEach(i -> {
+                int at = usersAt + i * USER_RECORD;
+                User u = new User(strings[buf.getInt(at)], strings[buf.getInt(at + 4)]);
+                int from = buf.getInt(at + 8), count = buf.getInt(at + 12);
+                for (int h = 0; h < count; h++) u.addToHistory(strings[buf.getInt(historyAt + (from + h) * 4)]);
+                users[i] = u;
+            });
+
+            LibraryGraph graph = new LibraryGraph();
+            int shelfCount = buf.getInt();
+            for (int i = 0; i < shelfCount; i++) graph.addShelf(strings[buf.getInt()]);
+            int edgeCount = buf.getInt();
+            for (int i = 0; i < edgeCount; i++) graph.addPath(strings[buf.getInt()], strings[buf.getInt()], buf.getInt());
+
+            int categoryCount = buf.getInt();
+            CategoryNode root = categoryCount == 0 ? new CategoryNode("ROOT") : readCategory(buf, strings);
+
+            List<Library.Hold> holds = new ArrayList<>();
+            if (version >= 2) {
+                int holdCount = buf.getInt();
+                for (int i = 0; i < holdCount; i++) {
+                    holds.add(new Library.Hold(strings[buf.getInt()], strings[buf.getInt()], buf.getLong()));
+                }
+            }
+
+            return Library.fromSnapshot(books, users, graph, root, holds, journalSeq);
+        }
+    }
+
+    private static CategoryNode readCategory(ByteBuffer buf, String[] strings) {
+        CategoryNode node = new CategoryNode(strings[buf.getInt()]);
+        int children = buf.getInt();
+        for (int i = 0; i < children; i++) node.addChild(readCategory(buf, strings));
+        return node;
+    }
+
+    // ====== Legacy conversion ======
+    /** Read a Java-serialized library_data.ser written by earlier versions */
+    public static Library readLegacy(Path file) throws IOException {
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            return (Library) ois.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unreadable legacy snapshot " + file, e);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: java SnapshotCodec <legacy .ser> <output .snap>");
+            System.exit(2);
+        }
+        long t0 = System.nanoTime();
+        Library lib = readLegacy(Paths.get(args[0]));
+        write(lib, lib.journalSeq(), Paths.get(args[1]));
+        System.out.printf("Converted %d books, %d users in %d ms%n",
+                lib.allBooks().size(), lib.allUsers().size(), (System.nanoTime() - t0) / 1_000_000);
+    }
+}
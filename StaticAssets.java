@@ -0,0 +1,210 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+import com.sun.net.httpserver.*;
+
+/**
+ * In-memory cache of the frontend's static files. Each asset keeps its raw
+ * bytes and, for text types, a gzip copy compressed once at load time. A file
+ * is re-read when its modification time or size changes. Responses carry ETag
+ * and Last-Modified and a conditional request that matches gets 304 with no
+ * body. Files over MAX_CACHED_BYTES are not held in memory but streamed from a
+ * FileChannel. Request paths are resolved under the root only, so "../" cannot
+ * escape it.
+ */
+public class StaticAssets {
+    private static final long MAX_CACHED_BYTES = Long.getLong("library.static.maxCachedBytes", 1 << 20);
+    private static final int MIN_GZIP_BYTES = 256;
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME;
+
+    private final Path root;
+    private final Map<Path, Asset> cache = new ConcurrentHashMap<>();
+
+    /** One cached file version: raw and optional gzip bytes plus validators */
+    private static final class Asset {
+        final long modified;
+        final long size;
+        final byte[] raw;
+        final byte[] gzip; // null when not worth compressing
+        final String etag;
+
+        Asset(long modified, long size, byte[] raw, byte[] gzip, String etag) {
+            this.modified = modified;
+            this.size = size;
+            this.raw = raw;
+            this.gzip = gzip;
+            this.etag = etag;
+        }
+    }
+
+    public StaticAssets(String root) {
+        this.root = Paths.get(root).toAbsolutePath().normalize();
+    }
+
+    /** Serve the file at the request path (relative to root); 404 if missing or outside root */
+    public void serve(HttpExchange exchange, String path) throws IOException {
+        Path file = null;
+        BasicFileAttributes attrs;
+        try {
+            file = root.resolve(path.startsWith("/") ? path.substring(1) : path).normalize();
+            attrs = file.startsWith(root) ? Files.readAttributes(file, BasicFileAttributes.class) : null;
+        } catch (InvalidPathException | NoSuchFileException e) {
+            attrs = null;
+        }
+        if (attrs == null || !attrs.isRegularFile()) {
+            byte[] body = "404 - File Not Found".getBytes();
+            exchange.sendResponseHeaders(404, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+            return;
+        }
+
+        long modified = attrs.lastModifiedTime().toMillis();
+        String type = contentType(path);
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Content-Type", type);
+        headers.set("Last-Modified", HTTP_DATE.format(ZonedDateTime.ofInstant(Instant.ofEpochMilli(modified), ZoneOffset.UTC)));
+        headers.set("Cache-Control", "no-cache"); // revalidate each time; unchanged files cost a 304
+        boolean head = "HEAD".equals(exchange.getRequestMethod());
+
+        if (attrs.size() > MAX_CACHED_BYTES) {
+            String etag = "\"" + Long.toHexString(modified) + "-" + Long.toHexString(attrs.size()) + "\"";
+            headers.set("ETag", etag);
+            if (notModified(exchange, etag, null, modified)) return;
+            streamFile(exchange, file, attrs.size(), head);
+            return;
+        }
+
+        Asset asset = cache.get(file);
+        if (asset == null || asset.modified != modified || asset.size != attrs.size()) {
+            asset = load(file, modified, type);
+            cache.put(file, asset);
+        }
+        boolean gzip = asset.gzip != null && acceptsGzip(exchange);
+        String gzipTag = asset.gzip == null ? null : asset.etag.substring(0, asset.etag.length() - 1) + "-gz\"";
+        headers.set("ETag", gzip ? gzipTag : asset.etag);
+        if (asset.gzip != null) headers.set("Vary", "Accept-Encoding");
+        if (notModified(exchange, asset.etag, gzipTag, modified)) return;
+
+        byte[] body = gzip ? asset.gzip : asset.raw;
+        if (gzip) headers.set("Content-Encoding", "gzip");
+        if (head) {
+            headers.set("Content-Length", Integer.toString(body.length));
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            return;
+        }
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private static Asset load(Path file, long modified, String type) throws IOException {
+        byte[] raw = Files.readAllBytes(file);
+        CRC32 crc = new CRC32();
+        crc.update(raw);
+        String etag = "\"" + Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(raw.length) + "\"";
+        byte[] gzip = null;
+        if (raw.length >= MIN_GZIP_BYTES && compressible(type)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 3);
+            try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+                gz.write(raw);
+            }
+            if (out.size() < raw.length) gzip = out.toByteArray();
+        }
+        return new Asset(modified, raw.length, raw, gzip, etag);
+    }
+
+    /** Answer 304 if If-None-Match names either tag, or (without it) If-Modified-Since is not older than the file */
+    private static boolean notModified(HttpExchange exchange, String etag, String gzipTag, long modified) throws IOException {
+        Headers req = exchange.getRequestHeaders();
+        String ifNoneMatch = req.getFirst("If-None-Match");
+        boolean match;
+        if (ifNoneMatch != null) {
+            match = false;
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) tag = tag.substring(2);
+                if (tag.equals("*") || tag.equals(etag) || tag.equals(gzipTag)) match = true;
+            }
+        } else {
+            String since = req.getFirst("If-Modified-Since");
+            if (since == null) return false;
+            try {
+                // HTTP dates have second precision
+                match = modified / 1000 <= ZonedDateTime.parse(since, HTTP_DATE).toEpochSecond();
+            } catch (DateTimeParseException e) {
+                match = false;
+            }
+        }
+        if (match) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+        }
+        return match;
+    }
+
+    /** Large files go straight from the file channel to the response in chunks, never whole in memory */
+    private static void streamFile(HttpExchange exchange, Path file, long size, boolean head) throws IOException {
+        if (head) {
+            exchange.getResponseHeaders().set("Content-Length", Long.toString(size));
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            return;
+        }
+        exchange.sendResponseHeaders(200, size);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ);
+             OutputStream os = exchange.getResponseBody()) {
+            ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+            long left = size;
+            while (left > 0 && ch.read(buf) > 0) {
+                buf.flip();
+                int n = (int) Math.min(buf.remaining(), left);
+                os.write(buf.array(), 0, n);
+                left -= n;
+                buf.clear();
+            }
+        }
+    }
+
+    private static boolean acceptsGzip(HttpExchange exchange) {
+        String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (accept == null) return false;
+        for (String coding : accept.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if (!parts[0].trim().equalsIgnoreCase("gzip")) continue;
+            return parts.length < 2 || !parts[1].trim().matches("q=0(\\.0*)?");
+        }
+        return false;
+    }
+
+    private static boolean compressible(String type) {
+        return type.startsWith("text/") || type.startsWith("application/javascript")
+                || type.startsWith("application/json") || type.startsWith("image/svg+xml");
+    }
+
+    static String contentType(String path) {
+        if (path.endsWith(".html")) return "text/html; charset=utf-8";
+        if (path.endsWith(".css")) return "text/css; charset=utf-8";
+        if (path.endsWith(".js")) return "application/javascript; charset=utf-8";
+        if (path.endsWith(".json")) return "application/json; charset=utf-8";
+        if (path.endsWith(".png")) return "image/png";
+        if (path.endsWith(".jpg") || path.endsWith(".jpeg")) return "image/jpeg";
+        if (path.endsWith(".gif")) return "image/gif";
+        if (path.endsWith(".svg")) return "image/svg+xml";
+        return "text/plain";
+    }
+}
@@ -0,0 +1,152 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel (Varghese and Lauck) for large numbers of
+ * long-lived timers such as reservation holds.
+ *
+ * Level 0 has 64 slots of one tick each; every level above has 64 slots that
+ * each span a full turn of the level below. A timer goes into the lowest level
+ * whose range covers its deadline; when a higher slot comes due its timers
+ * cascade down a level, so each timer is touched at most once per level
+ * (O(1) amortized per expiry with a fixed number of levels). Scheduling and
+ * cancelling are O(1) on intrusive doubly-linked slot lists. Timers beyond
+ * the top level's range are parked a full top-level turn ahead and re-placed
+ * when that slot cascades.
+ *
+ * The wheel is passive: advance(now) returns what came due, so callers can
+ * run expiries outside the wheel's monitor and drive it from any clock.
+ */
+public class TimingWheel<T> {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 6;
+
+    private final long tickMillis;
+    private final Timer<T>[][] heads;
+    private long currentTick;
+    private int size;
+
+    /** Handle for one scheduled payload */
+    public static final class Timer<T> {
+        final T payload;
+        final long deadlineTick;
+        Timer<T> prev, next;
+        int level = -1, slot; // level -1: not in the wheel (fired or cancelled)
+
+        Timer(T payload, long deadlineTick) {
+            this.payload = payload;
+            this.deadlineTick = deadlineTick;
+        }
+
+        public T payload() {
+            return payload;
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimingWheel(long tickMillis, long nowMillis) {
+        this.tickMillis = tickMillis;
+        this.currentTick = nowMillis / tickMillis;
+        this.heads = new Timer[LEVELS][SLOTS];
+    }
+
+    /** Schedule payload to come due at deadlineMillis (already past: at the next advance) */
+    public synchronized Timer<T> schedule(T payload, long deadlineMillis) {
+        long tick = Math.max(ceilDiv(deadlineMillis, tickMillis), currentTick + 1);
+        Timer<T> t = new Timer<>(payload, tick);
+        place(t);
+        size++;
+        return t;
+    }
+
+    /** Remove a timer that has not fired yet; returns false if it already fired or was cancelled */
+    public synchronized boolean cancel(Timer<T> t) {
+        if (t == null || t.level < 0) return false;
+        unlink(t);
+        size--;
+        return true;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /** Move the wheel to nowMillis and return the payloads that came due, in deadline-tick order */
+    public synchronized List<T> advance(long nowMillis) {
+        List<T> due = new ArrayList<>();
+        long target = nowMillis / tickMillis;
+        while (currentTick < target) {
+            currentTick++;
+            // cascade every level whose slot boundary this tick crosses
+            for (int level = 1; level < LEVELS; level++) {
+                if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0) break;
+                int slot = (int) ((currentTick >>> (SLOT_BITS * level)) & (SLOTS - 1));
+                Timer<T> t = heads[level][slot];
+                heads[level][slot] = null;
+                while (t != null) {
+                    Timer<T> next = t.next;
+                    t.prev = t.next = null;
+                    place(t);
+                    t = next;
+                }
+            }
+            int slot = (int) (currentTick & (SLOTS - 1));
+            Timer<T> t = heads[0][slot];
+            heads[0][slot] = null;
+            while (t != null) {
+                Timer<T> next = t.next;
+                t.prev = t.next = null;
+                t.level = -1;
+                size--;
+                due.add(t.payload);
+                t = next;
+            }
+            if (size == 0) {
+                // nothing left to cascade: jump instead of stepping through idle ticks
+                currentTick = Math.max(currentTick, target);
+            }
+        }
+        return due;
+    }
+
+    private void place(Timer<T> t) {
+        long delta = t.deadlineTick - currentTick;
+        int level = 0;
+        if (delta <= 0) {
+            // cascaded onto the current tick: advance drains this slot right after cascading
+            link(t, 0, (int) (currentTick & (SLOTS - 1)));
+            return;
+        }
+        while (level < LEVELS - 1 && delta >= (1L << (SLOT_BITS * (level + 1)))) level++;
+        long tick = t.deadlineTick;
+        if (level == LEVELS - 1 && delta >= (1L << (SLOT_BITS * LEVELS))) {
+            // beyond the wheel's range: park one turn of the top level ahead, re-placed on cascade
+            tick = currentTick + (1L << (SLOT_BITS * LEVELS)) - 1;
+        }
+        int slot = (int) ((tick >>> (SLOT_BITS * level)) & (SLOTS - 1));
+        link(t, level, slot);
+    }
+
+    private void link(Timer<T> t, int level, int slot) {
+        t.level = level;
+        t.slot = slot;
+        Timer<T> head = heads[level][slot];
+        t.next = head;
+        t.prev = null;
+        if (head != null) head.prev = t;
+        heads[level][slot] = t;
+    }
+
+    private void unlink(Timer<T> t) {
+        if (t.prev != null) t.prev.next = t.next;
+        else heads[t.level][t.slot] = t.next;
+        if (t.next != null) t.next.prev = t.prev;
+        t.prev = t.next = null;
+        t.level = -1;
+    }
+
+    private static long ceilDiv(long a, long b) {
+        return -Math.floorDiv(-a, b);
+    }
+}
@@ -0,0 +1,72 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Sorted index of normalized (lower-cased) titles kept current by the Library
+ * on every add/replace, so lookups are O(log n) instead of sort-per-query.
+ * Several books may share a title; they are kept together under one key.
+ */
+public class TitleIndex {
+    private final ConcurrentSkipListMap<String, Book[]> byTitle = new ConcurrentSkipListMap<>();
+
+    static String normalize(String title) {
+        return title == null ? "" : title.toLowerCase();
+    }
+
+    public void add(Book b) {
+        byTitle.merge(normalize(b.title), new Book[]{b}, (old, one) -> {
+            Book[] grown = Arrays.copyOf(old, old.length + 1);
+            grown[old.length] = one[0];
+            return grown;
+        });
+    }
+
+    public void remove(Book b) {
+        byTitle.computeIfPresent(normalize(b.title), (k, old) -> {
+            int idx = -1;
+            for (int i = 0; i < old.length; i++) if (old[i] == b) { idx = i; break; }
+            if (idx < 0) return old;
+            if (old.length == 1) return null;
+            Book[] shrunk = new Book[old.length - 1];
+            System.arraycopy(old, 0, shrunk, 0, idx);
+            System.arraycopy(old, idx + 1, shrunk, idx, old.length - idx - 1);
+            return shrunk;
+        });
+    }
+
+    public void clear() {
+        byTitle.clear();
+    }
+
+    /** Exact case-insensitive match; returns one of the books with that title or null */
+    public Book exact(String title) {
+        Book[] hits = byTitle.get(normalize(title));
+        return hits == null ? null : hits[0];
+    }
+
+    /** Books whose title starts with prefix, in title order, up to limit results */
+    public List<Book> prefix(String prefix, int limit) {
+        String p = normalize(prefix);
+        return collect(byTitle.subMap(p, true, p + Character.MAX_VALUE, true), limit);
+    }
+
+    /** Books with titles in [from, to), in title order, up to limit results */
+    public List<Book> range(String from, String to, int limit) {
+        return collect(byTitle.subMap(normalize(from), true, normalize(to), false), limit);
+    }
+
+    public int size() {
+        return byTitle.size();
+    }
+
+    private static List<Book> collect(NavigableMap<String, Book[]> view, int limit) {
+        List<Book> out = new ArrayList<>();
+        for (Book[] hits : view.values()) {
+            for (Book b : hits) {
+                if (out.size() >= limit) return out;
+                out.add(b);
+            }
+        }
+        return out;
+    }
+}
@@ -7,6 +7,8 @@ public class User implements Serializable {
     public String name;
     public String contact;
     public Stack<String> borrowHistory; // store titles
+    // Library.historyVersion() when this history last changed; cached recommendations compare against it
+    transient volatile long historyStamp;
 
     public User(String name, String contact) {
         this.name = name;
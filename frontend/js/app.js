@@ -9,6 +9,7 @@ class LibraryUI {
         this.setupNavigation();
         this.setupEventListeners();
         this.setupModals();
+        this.connectEventStream();
     }
 
     setupNavigation() {
@@ -101,20 +102,90 @@ class LibraryUI {
     }
 
     updateStats() {
-        // Mock data - in real implementation, this would come from Java backend
-        const stats = {
+        // Live counters once the event stream has delivered them, mock data until then
+        const stats = this.stats || {
             totalBooks: 10,
             availableBooks: 7,
             totalUsers: 5,
             borrowedBooks: 3
         };
 
+        this.showStats(stats);
+    }
+
+    showStats(stats) {
         document.getElementById('total-books').textContent = stats.totalBooks;
         document.getElementById('available-books').textContent = stats.availableBooks;
         document.getElementById('total-users').textContent = stats.totalUsers;
         document.getElementById('borrowed-books').textContent = stats.borrowedBooks;
     }
 
+    connectEventStream() {
+        // Live updates pushed by the server (GET /api/events); without it the mock figures stay
+        if (!window.EventSource) return;
+        const stream = new EventSource('/api/events');
+        ['hello', 'resync', 'stats'].forEach(type => stream.addEventListener(type, e => {
+            this.stats = JSON.parse(e.data);
+            this.showStats(this.stats);
+        }));
+        stream.addEventListener('book', e => {
+            const book = JSON.parse(e.data);
+            this.applyDelta(book.delta);
+            this.addActivity('fas fa-book', `Book "${book.title}" added`);
+        });
+        stream.addEventListener('books', e => {
+            const batch = JSON.parse(e.data);
+            this.applyDelta(batch.delta);
+            this.addActivity('fas fa-book', `${batch.added} books imported`);
+        });
+        stream.addEventListener('user', e => {
+            const user = JSON.parse(e.data);
+            this.applyDelta(user.delta);
+            this.addActivity('fas fa-user-plus', `New user ${user.name} registered`);
+        });
+        stream.addEventListener('status', e => {
+            const change = JSON.parse(e.data);
+            this.applyDelta(change.delta);
+            const badge = document.querySelector(`tr[data-isbn="${CSS.escape(change.isbn)}"] .status-badge`);
+            if (badge) {
+                badge.className = `status-badge ${change.status.toLowerCase()}`;
+                badge.textContent = change.status;
+            }
+            const text = change.reason === 'borrow' || change.reason === 'pickup'
+                ? `${change.user} borrowed "${change.title}"`
+                : change.reason === 'waitlist'
+                    ? `${change.user} is waiting for "${change.title}"`
+                    : `Book "${change.title}" returned`;
+            this.addActivity(change.reason === 'borrow' || change.reason === 'pickup' ? 'fas fa-book' : 'fas fa-undo', text);
+        });
+    }
+
+    applyDelta(delta) {
+        if (!this.stats || !delta) return;
+        Object.entries(delta).forEach(([key, change]) => {
+            this.stats[key] = (this.stats[key] || 0) + change;
+        });
+        this.showStats(this.stats);
+    }
+
+    addActivity(icon, text) {
+        const activityList = document.getElementById('recent-activity');
+        const item = document.createElement('div');
+        item.className = 'activity-item';
+        item.innerHTML = `
+            <div class="activity-icon">
+                <i class="${icon}"></i>
+            </div>
+            <div class="activity-content">
+                <p></p>
+                <span class="activity-time">just now</span>
+            </div>
+        `;
+        item.querySelector('p').textContent = text;
+        activityList.prepend(item);
+        while (activityList.children.length > 20) activityList.lastElementChild.remove();
+    }
+
     loadRecentActivity() {
         const activities = [
             { icon: 'fas fa-book', text: 'Amit Sharma borrowed "Data Structures in Java"', time: '2 hours ago' },
@@ -179,7 +250,7 @@ class LibraryUI {
 
         const booksTable = document.getElementById('books-table');
         booksTable.innerHTML = books.map(book => `
-            <tr>
+            <tr data-isbn="${book.isbn}">
                 <td>${book.isbn}</td>
                 <td>${book.title}</td>
                 <td>${book.author}</td>
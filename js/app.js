@@ -3,6 +3,8 @@ class LibraryUI {
     constructor() {
         this.apiBase = 'http://localhost:8080/api';
         this.isServerRunning = false;
+        this.eventStream = null;
+        this.liveStats = null;
         this.init();
         this.checkServerConnection();
     }
@@ -23,6 +25,7 @@ class LibraryUI {
                 this.isServerRunning = true;
                 this.showNotification('✅ Connected to Java backend server', 'success');
                 this.loadDashboardData();
+                this.connectEventStream();
             }
         } catch (error) {
             this.isServerRunning = false;
@@ -159,14 +162,111 @@ class LibraryUI {
     }
 
     setupRealTimeUpdates() {
-        // Auto-refresh dashboard every 30 seconds
+        // Fallback: auto-refresh dashboard every 30 seconds while the event stream is not open
         setInterval(() => {
+            if (this.eventStream && this.eventStream.readyState === EventSource.OPEN) return;
             if (document.getElementById('dashboard').classList.contains('active')) {
                 this.loadDashboardData(true); // Silent update
             }
         }, 30000);
     }
 
+    connectEventStream() {
+        // Server-Sent Events: the server pushes each change instead of us polling stats, books and users
+        if (!window.EventSource || this.eventStream) return;
+        const stream = new EventSource(`${this.apiBase}/events`);
+        this.eventStream = stream;
+
+        // absolute counters: on connect, after falling behind, and every few seconds while things change
+        ['hello', 'resync', 'stats'].forEach(type => stream.addEventListener(type, e => {
+            this.liveStats = JSON.parse(e.data);
+            this.updateStats(this.liveStats);
+        }));
+
+        stream.addEventListener('book', e => {
+            const book = JSON.parse(e.data);
+            this.applyDelta(book.delta);
+            this.addActivity('fas fa-book-medical', `New book "${book.title}" by ${book.author} added`, 'user');
+        });
+        stream.addEventListener('books', e => {
+            const batch = JSON.parse(e.data);
+            this.applyDelta(batch.delta);
+            this.addActivity('fas fa-file-import', `${batch.added} books imported`, 'user');
+        });
+        stream.addEventListener('user', e => {
+            const user = JSON.parse(e.data);
+            this.applyDelta(user.delta);
+            this.addActivity('fas fa-user-plus', `New user ${user.name} registered`, 'user');
+        });
+        stream.addEventListener('status', e => {
+            const change = JSON.parse(e.data);
+            this.applyDelta(change.delta);
+            this.updateBookStatus(change.isbn, change.status);
+            this.addActivity(...this.describeStatus(change));
+        });
+
+        stream.onerror = () => {
+            // EventSource reconnects by itself (resuming from the last event id); give up only once it has closed
+            if (stream.readyState === EventSource.CLOSED) {
+                this.eventStream = null;
+                this.liveStats = null;
+            }
+        };
+    }
+
+    applyDelta(delta) {
+        if (!this.liveStats || !delta) return;
+        Object.entries(delta).forEach(([key, change]) => {
+            this.liveStats[key] = (this.liveStats[key] || 0) + change;
+        });
+        this.updateStats(this.liveStats);
+    }
+
+    describeStatus(change) {
+        const title = `"${change.title}"`;
+        switch (change.reason) {
+            case 'borrow': return ['fas fa-book', `${change.user} borrowed ${title}`, 'borrow'];
+            case 'pickup': return ['fas fa-book', `${change.user} picked up ${title}`, 'borrow'];
+            case 'waitlist': return ['fas fa-clock', `${change.user} joined the waiting list for ${title}`, 'borrow'];
+            case 'expired': return ['fas fa-hourglass-end', change.user
+                ? `Hold on ${title} expired, now held for ${change.user}` : `Hold on ${title} expired`, 'return'];
+            default: return ['fas fa-undo', change.user
+                ? `Book ${title} returned, ${change.status === 'Held' ? 'held for' : 'passed to'} ${change.user}`
+                : `Book ${title} returned`, 'return'];
+        }
+    }
+
+    updateBookStatus(isbn, status) {
+        const row = document.querySelector(`tr[data-isbn="${CSS.escape(isbn)}"]`);
+        const badge = row && row.querySelector('.status-badge');
+        if (!badge) return;
+        badge.className = `status-badge ${status.toLowerCase()}`;
+        badge.innerHTML = `<i class="fas ${status === 'Available' ? 'fa-check-circle' : 'fa-clock'}"></i> ${status}`;
+        row.className = `book-row ${status.toLowerCase()}`;
+    }
+
+    addActivity(icon, text, type) {
+        const activityList = document.getElementById('recent-activity');
+        if (!activityList) return;
+        const item = document.createElement('div');
+        item.className = `activity-item ${type}`;
+        item.innerHTML = `
+            <div class="activity-icon">
+                <i class="${icon}"></i>
+            </div>
+            <div class="activity-content">
+                <p></p>
+                <span class="activity-time">just now</span>
+            </div>
+            <div class="activity-status">
+                <span class="status-dot ${type}"></span>
+            </div>
+        `;
+        item.querySelector('p').textContent = text;
+        activityList.prepend(item);
+        while (activityList.children.length > 20) activityList.lastElementChild.remove();
+    }
+
     setupKeyboardShortcuts() {
         document.addEventListener('keydown', (e) => {
             // Ctrl/Cmd + K for quick search
@@ -0,0 +1,13 @@
+#!/bin/bash
+
+# Usage: ./run-benchmarks.sh [scenario] [sizes]   e.g. ./run-benchmarks.sh search 1k,100k,10m
+echo "📚 Compiling Java files..."
+javac *.java
+
+if [ $? -eq 0 ]; then
+    echo "⏱️  Running benchmarks..."
+    java ${BENCH_JAVA_OPTS:--Xmx8g} LibraryBenchmark "${1:-all}" "${2:-1k,10k,100k,1m}"
+else
+    echo "❌ Compilation failed!"
+    exit 1
+fi